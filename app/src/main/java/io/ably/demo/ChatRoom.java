@@ -0,0 +1,360 @@
+package io.ably.demo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import android.os.Handler;
+import io.ably.demo.connection.Connection;
+import io.ably.demo.metrics.Counter;
+import io.ably.demo.metrics.Metrics;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.Presence;
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+
+/**
+ * One channel's share of the chat state: its timeline, the store mirroring it to disk and the outbox
+ * for messages sent to it. A room lives as long as its channel stays warm in the {@link Connection};
+ * reopening an evicted room restores it from disk.
+ * <p>
+ * Presence events are handed back to the {@link ChatSession}, which only applies those of the current
+ * room to the roster and typing state. Main thread only.
+ */
+public class ChatRoom {
+
+    interface Host {
+        /**
+         * Membership and typing events from one frame, after the room has applied its rows.
+         */
+        void onPresenceEvents(ChatRoom room, List<PresenceMessage> events);
+
+        void onError(String title, Exception ex);
+    }
+
+    static final int RECENT_IDS = 4096;
+    private static final Counter DUPLICATES = Metrics.counter(Metrics.INBOUND_DUPLICATES);
+
+    private final String name;
+    private final Host host;
+    private final Handler mainHandler;
+    private final int maxRows;
+    private final CompactTimeline timeline = new CompactTimeline();
+    private final RecentIds recentIds = new RecentIds(RECENT_IDS);
+    private final InboundEventQueue inboundEvents = new InboundEventQueue(this::onInboundEvents);
+    final Channel.MessageListener messageListener = this::onInboundEvent;
+    final Presence.PresenceListener presenceListener = this::onInboundEvent;
+    private final MessageStore messageStore;
+    private final MessageSearch messageSearch;
+    private final Outbox outbox;
+    private final HashMap<Long, Long> pendingTimestamps = new HashMap<>();
+    private boolean storeRestored;
+    private boolean historyWaitingForStore;
+    private long newestStoredTimestamp;
+    private boolean historyStarted;
+    private boolean followingLatest = true;
+    private boolean loadingOlderRows;
+    private boolean olderHistoryAvailable = true;
+    private boolean closed;
+
+    ChatRoom(String name, File storageDir, int maxRows, Handler mainHandler, Host host) {
+        this.name = name;
+        this.host = host;
+        this.mainHandler = mainHandler;
+        this.maxRows = maxRows;
+        String fileName = fileNameOf(name);
+        messageStore = new MessageStore(new File(storageDir, "timeline-" + fileName + ".log"), maxRows);
+        messageSearch = new MessageSearch(new File(storageDir, "search-" + fileName + ".log"),
+            new File(storageDir, "search-" + fileName + ".idx"));
+        outbox = new Outbox(new File(storageDir, "outbox-" + fileName + ".log"),
+            (batch, callback) -> Connection.getInstance().publishBatch(name, batch, callback));
+
+        messageStore.load((rows, newestTimestamp) -> mainHandler.post(() -> {
+            if (closed) {
+                return;
+            }
+            timeline.addAll(rows);
+            messageSearch.add(rows);
+            newestStoredTimestamp = newestTimestamp;
+            storeRestored = true;
+            if (historyWaitingForStore) {
+                historyWaitingForStore = false;
+                loadInitialHistory();
+            }
+        }));
+        outbox.setListener((messages, ex) -> mainHandler.post(() -> {
+            if (closed) {
+                return;
+            }
+            for (Message message : messages) {
+                removePending(message);
+            }
+            host.onError("Unable to send message", ex);
+        }));
+        outbox.load((rows, newestTimestamp) -> mainHandler.post(() -> {
+            if (closed) {
+                return;
+            }
+            for (BaseMessage row : rows) {
+                showPending((Message) row);
+            }
+        }));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CompactTimeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Shows the message at once and queues it for publishing; it goes out as soon as the connection allows.
+     */
+    void send(String clientId, String text) {
+        Message message = outbox.newMessage(clientId, text);
+        showPending(message);
+        outbox.enqueue(message);
+    }
+
+    public boolean isPending(long stableId) {
+        return pendingTimestamps.containsKey(stableId);
+    }
+
+    void setOnline(boolean online) {
+        outbox.setOnline(online);
+    }
+
+    /**
+     * Loads the newest history the first time the channel is entered; later calls do nothing.
+     */
+    void startHistory() {
+        if (historyStarted) {
+            return;
+        }
+        historyStarted = true;
+        loadingOlderRows = true;
+        loadInitialHistory();
+    }
+
+    public boolean isFollowingLatest() {
+        return followingLatest;
+    }
+
+    /**
+     * Only records the scroll state; trimming waits for the next insert so no change is dispatched
+     * from within a scroll callback.
+     */
+    public void setFollowingLatest(boolean followingLatest) {
+        this.followingLatest = followingLatest;
+    }
+
+    /**
+     * Called when the top of the list comes into view; requests the next page of older rows if there is one.
+     */
+    public void onScrolledNearOldest() {
+        if (historyStarted && !loadingOlderRows && (olderHistoryAvailable || timeline.hasEvictedRows())) {
+            loadingOlderRows = true;
+            Connection.getInstance().loadOlderHistory(name, timeline.oldestTimestamp(), this::onHistoryRetrieved);
+        }
+    }
+
+    /**
+     * Searches every message this room has received, not just the timeline; see {@link MessageSearch#search}.
+     * {@code callback} is called on the main thread.
+     */
+    public void search(String query, String sender, int limit, final MessageSearch.ResultCallback callback) {
+        messageSearch.search(query, sender, limit, messages -> mainHandler.post(() -> callback.onResults(messages)));
+    }
+
+    void trimTo(int window) {
+        timeline.trimTo(window);
+    }
+
+    /**
+     * Writes the rows still queued for the store and waits for them; blocks, so call it off the main thread.
+     */
+    void flushStore() {
+        messageStore.flush();
+    }
+
+    /**
+     * Flushes the store and stops the outbox; unsent messages stay on disk for the next time the room is opened.
+     * Events and history results still on their way are ignored from here on.
+     */
+    void close() {
+        closed = true;
+        inboundEvents.close();
+        timeline.setListener(null);
+        messageStore.close();
+        messageSearch.close();
+        outbox.close();
+    }
+
+    /**
+     * Without stored rows this is the newest page of history. With them, only rows newer than the newest
+     * stored one are fetched; if there are too many to fill the gap, the stored rows are dropped in
+     * favour of the newest ones and older history is paged in as usual.
+     */
+    private void loadInitialHistory() {
+        if (!storeRestored) {
+            historyWaitingForStore = true;
+            return;
+        }
+        if (newestStoredTimestamp == 0) {
+            Connection.getInstance().loadOlderHistory(name, Long.MAX_VALUE, this::onHistoryRetrieved);
+            return;
+        }
+        Connection.getInstance().loadNewerHistory(name, newestStoredTimestamp, maxRows, (items, gap, ex) -> mainHandler.post(() -> {
+            if (closed) {
+                return;
+            }
+            if (ex != null) {
+                host.onError("Unable to retrieve message history", ex);
+            }
+            loadingOlderRows = false;
+            if (gap && ex == null) {
+                timeline.trimTo(0);
+                messageStore.clear();
+                recentIds.clear();
+            }
+            addUnseen(items);
+        }));
+    }
+
+    private void addUnseen(List<BaseMessage> items) {
+        List<BaseMessage> unseen = dropSeen(items);
+        removePending(unseen);
+        timeline.addAll(unseen);
+        messageStore.append(unseen);
+        messageSearch.add(unseen);
+    }
+
+    /**
+     * The de-duplication stage in front of the timeline for live events and catch-up: rows whose id was
+     * among the last {@link #RECENT_IDS} received are dropped before they reach the timeline or the
+     * store. Older history is not filtered, as it may legitimately bring back rows evicted from the window.
+     */
+    private boolean isDuplicate(BaseMessage event) {
+        if (recentIds.add(MessageKeys.stableIdOf(event))) {
+            return false;
+        }
+        DUPLICATES.increment();
+        return true;
+    }
+
+    private List<BaseMessage> dropSeen(List<BaseMessage> events) {
+        ArrayList<BaseMessage> unseen = new ArrayList<>(events.size());
+        for (BaseMessage event : events) {
+            if (!isDuplicate(event)) {
+                unseen.add(event);
+            }
+        }
+        return unseen;
+    }
+
+    private void showPending(Message message) {
+        pendingTimestamps.put(MessageKeys.stableIdOf(message), message.timestamp);
+        timeline.add(message);
+    }
+
+    /**
+     * Takes a locally shown message out of the timeline, if it is one, so the server's copy can take its place.
+     */
+    private void removePending(BaseMessage message) {
+        long stableId = MessageKeys.stableIdOf(message);
+        Long localTimestamp = pendingTimestamps.remove(stableId);
+        if (localTimestamp != null) {
+            timeline.remove(localTimestamp, stableId);
+        }
+    }
+
+    private void removePending(List<BaseMessage> rows) {
+        if (pendingTimestamps.isEmpty()) {
+            return;
+        }
+        for (BaseMessage row : rows) {
+            removePending(row);
+        }
+    }
+
+    /**
+     * Merges a page of older history, or rows reloaded after eviction. The window is allowed to exceed
+     * its cap while the user reads back; it is trimmed again once they return to the latest rows.
+     */
+    private void onHistoryRetrieved(final List<BaseMessage> items, final boolean hasMore, final Exception ex) {
+        mainHandler.post(() -> {
+            if (closed) {
+                return;
+            }
+            if (ex != null) {
+                host.onError("Unable to retrieve message history", ex);
+            }
+            loadingOlderRows = false;
+            olderHistoryAvailable = hasMore;
+            removePending(items);
+            if (timeline.addAll(items).length == 0 && !hasMore) {
+                timeline.clearEvictedRows();
+            }
+            messageStore.append(items);
+            messageSearch.add(items);
+        });
+    }
+
+    /**
+     * Called on the library's thread; the payload is decoded there so the main thread never parses it.
+     */
+    private void onInboundEvent(BaseMessage event) {
+        Payloads.decode(event);
+        inboundEvents.offer(event);
+    }
+
+    /**
+     * Applies one frame's worth of realtime events: chat rows and membership go to the timeline as a
+     * single batch and the presence events are passed on to the session.
+     */
+    private void onInboundEvents(List<BaseMessage> events) {
+        if (closed) {
+            return;
+        }
+        ArrayList<BaseMessage> rows = new ArrayList<>(events.size());
+        ArrayList<PresenceMessage> presenceEvents = new ArrayList<>();
+        for (BaseMessage event : events) {
+            if (!(event instanceof PresenceMessage)) {
+                if (isDuplicate(event)) {
+                    continue;
+                }
+                if (!pendingTimestamps.isEmpty()) {
+                    removePending(event);
+                }
+                rows.add(event);
+                continue;
+            }
+            PresenceMessage presenceMessage = (PresenceMessage) event;
+            if (presenceMessage.action != PresenceMessage.Action.update) {
+                if (isDuplicate(presenceMessage)) {
+                    continue;
+                }
+                rows.add(presenceMessage);
+            }
+            presenceEvents.add(presenceMessage);
+        }
+
+        if (!rows.isEmpty()) {
+            timeline.addAll(rows);
+            messageStore.append(rows);
+            messageSearch.add(rows);
+            if (followingLatest) {
+                timeline.trimTo(maxRows);
+            }
+        }
+        host.onPresenceEvents(this, presenceEvents);
+    }
+
+    private static String fileNameOf(String channelName) {
+        return channelName.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+}
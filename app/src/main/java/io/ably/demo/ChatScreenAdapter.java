@@ -1,126 +1,177 @@
 package io.ably.demo;
 
-import java.util.ArrayList;
-import java.util.Collections;
-
 import android.graphics.Color;
+import android.graphics.drawable.Drawable;
 import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.TextView;
-import io.ably.lib.types.BaseMessage;
-import io.ably.lib.types.Message;
-import io.ably.lib.types.PresenceMessage;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import io.ably.demo.metrics.LatencyHistogram;
+import io.ably.demo.metrics.Metrics;
+
+public class ChatScreenAdapter extends RecyclerView.Adapter<ChatScreenAdapter.ViewHolder> {
+    private static final int VIEW_TYPE_INCOMING = 0;
+    private static final int VIEW_TYPE_OUTGOING = 1;
+    private static final int VIEW_TYPE_PRESENCE = 2;
+    private static final LatencyHistogram INSERT_LATENCY = Metrics.histogram(Metrics.ADAPTER_INSERT);
+    private static final LatencyHistogram BIND_LATENCY = Metrics.histogram(Metrics.ADAPTER_BIND);
 
-public class ChatScreenAdapter extends BaseAdapter {
     private final MainActivity mainActivity;
+    private final ChatRoom room;
     private final String ownClientId;
+    private final CompactTimeline timeline;
+    private Drawable.ConstantState presenceInBackground;
+    private Drawable.ConstantState presenceOutBackground;
     LayoutInflater layoutInflater;
-    ArrayList<BaseMessage> items = new ArrayList<>();
 
-    public ChatScreenAdapter(MainActivity mainActivity, String ownClientId) {
+    /**
+     * Renders the room's timeline, which outlives this adapter; call {@link #detach()} when the
+     * Activity goes away or another room is shown.
+     */
+    public ChatScreenAdapter(MainActivity mainActivity, ChatRoom room, String ownClientId) {
         this.mainActivity = mainActivity;
         this.layoutInflater = mainActivity.getLayoutInflater();
+        this.room = room;
         this.ownClientId = ownClientId;
-    }
+        this.timeline = room.getTimeline();
+        this.timeline.setListener(new CompactTimeline.Listener() {
+            @Override
+            public void onItemsInserted(int[] positions) {
+                notifyInserted(positions);
+            }
 
-    public void addItem(BaseMessage message) {
-        this.items.add(message);
-        this.sortItemsAndNotifyChange();
+            @Override
+            public void onItemsRemoved(int position, int count) {
+                notifyItemRangeRemoved(position, count);
+            }
+        });
+        setHasStableIds(true);
     }
 
-    public void addItems(Iterable<? extends BaseMessage> newItems) {
-        for (BaseMessage item : newItems) {
-            items.add(item);
-        }
-        this.sortItemsAndNotifyChange();
+    public void detach() {
+        timeline.setListener(null);
     }
 
-    private void sortItemsAndNotifyChange() {
-        Collections.sort(items, new ItemsTimeComparator());
-        notifyChange();
+    /**
+     * Drops cached render state.
+     */
+    public void onTrimMemory() {
+        presenceInBackground = null;
+        presenceOutBackground = null;
     }
 
-    private void notifyChange() {
-        mainActivity.runOnUiThread(this::notifyDataSetChanged);
+    /**
+     * Positions arrive ascending and refer to the updated timeline, so each consecutive run
+     * can be dispatched as one range in order.
+     */
+    private void notifyInserted(int[] positions) {
+        long started = System.nanoTime();
+        int runStart = 0;
+        for (int i = 1; i <= positions.length; i++) {
+            if (i == positions.length || positions[i] != positions[i - 1] + 1) {
+                notifyItemRangeInserted(positions[runStart], i - runStart);
+                runStart = i;
+            }
+        }
+        INSERT_LATENCY.recordSince(started);
     }
 
     @Override
-    public int getCount() {
-        return items.size();
+    public int getItemCount() {
+        return timeline.size();
     }
 
     @Override
-    public Object getItem(int position) {
-        return items.get(position);
+    public long getItemId(int position) {
+        return timeline.idAt(position);
     }
 
     @Override
-    public long getItemId(int position) {
-        return 0;
+    public int getItemViewType(int position) {
+        if (timeline.kindAt(position) == CompactTimeline.KIND_MESSAGE) {
+            return this.ownClientId.equals(timeline.senderAt(position)) ? VIEW_TYPE_OUTGOING : VIEW_TYPE_INCOMING;
+        }
+        return VIEW_TYPE_PRESENCE;
     }
 
+    @NonNull
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        if (this.items.get(position) instanceof Message) {
-            Message message = (Message) this.items.get(position);
-            if (!this.ownClientId.equals(this.items.get(position).clientId)) {
-                convertView = this.layoutInflater.inflate(R.layout.chat_message_incoming, parent, false);
-                this.setupIncomingMessageView(message, convertView);
-            } else {
-                convertView = this.layoutInflater.inflate(R.layout.chat_message_outgoing, parent, false);
-                this.setupOutgoingMessageView(message, convertView);
-            }
-
-        } else {
-            convertView = this.layoutInflater.inflate(R.layout.presence_message, parent, false);
-
-            this.setupPresenceView(position, convertView);
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        switch (viewType) {
+            case VIEW_TYPE_INCOMING:
+                return new ViewHolder(this.layoutInflater.inflate(R.layout.chat_message_incoming, parent, false));
+            case VIEW_TYPE_OUTGOING:
+                return new ViewHolder(this.layoutInflater.inflate(R.layout.chat_message_outgoing, parent, false));
+            default:
+                return new ViewHolder(this.layoutInflater.inflate(R.layout.presence_message, parent, false));
         }
+    }
 
-        return convertView;
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        long started = System.nanoTime();
+        switch (holder.getItemViewType()) {
+            case VIEW_TYPE_INCOMING:
+                this.setupIncomingMessageView(position, holder);
+                break;
+            case VIEW_TYPE_OUTGOING:
+                this.setupOutgoingMessageView(position, holder);
+                break;
+            default:
+                this.setupPresenceView(position, holder);
+                break;
+        }
+        BIND_LATENCY.recordSince(started);
     }
 
-    private void setupIncomingMessageView(Message message, View convertView) {
-        String relativeDateText = DateUtils.getRelativeTimeSpanString(mainActivity.getApplicationContext(), message.timestamp).toString();
+    private void setupIncomingMessageView(int position, ViewHolder holder) {
+        String relativeDateText = DateUtils.getRelativeTimeSpanString(mainActivity.getApplicationContext(), timeline.timestampAt(position)).toString();
 
-        ((TextView) convertView.findViewById(R.id.username)).setText(message.clientId);
-        ((TextView) convertView.findViewById(R.id.timestamp)).setText(relativeDateText);
-        ((TextView) convertView.findViewById(R.id.message)).setText(message.data.toString());
+        holder.username.setText(timeline.senderAt(position));
+        holder.timestamp.setText(relativeDateText);
+        holder.message.setText(timeline.textAt(position));
     }
 
-    private void setupOutgoingMessageView(Message message, View convertView) {
-        String relativeDateText = DateUtils.getRelativeTimeSpanString(mainActivity.getApplicationContext(), message.timestamp).toString();
+    private void setupOutgoingMessageView(int position, ViewHolder holder) {
+        String relativeDateText = room.isPending(timeline.idAt(position)) ? "sending..."
+            : DateUtils.getRelativeTimeSpanString(mainActivity.getApplicationContext(), timeline.timestampAt(position)).toString();
 
-        ((TextView) convertView.findViewById(R.id.timestamp)).setText(relativeDateText);
-        ((TextView) convertView.findViewById(R.id.message)).setText(message.data.toString());
+        holder.timestamp.setText(relativeDateText);
+        holder.message.setText(timeline.textAt(position));
     }
 
-    private void setupPresenceView(int position, View convertView) {
-        PresenceMessage presenceMessage = (PresenceMessage) items.get(position);
-        TextView actionView = (TextView) convertView.findViewById(R.id.action);
+    private void setupPresenceView(int position, ViewHolder holder) {
+        TextView actionView = holder.action;
+        byte kind = timeline.kindAt(position);
 
-        if (presenceMessage.action.equals(PresenceMessage.Action.enter)) {
+        if (kind == CompactTimeline.KIND_ENTER) {
             actionView.setTextColor(Color.rgb(207, 207, 207));
-            actionView.setBackground(mainActivity.getResources().getDrawable(R.drawable.presence_in));
-        } else if (presenceMessage.action.equals(PresenceMessage.Action.leave)) {
+            if (presenceInBackground == null) {
+                presenceInBackground = mainActivity.getResources().getDrawable(R.drawable.presence_in).getConstantState();
+            }
+            actionView.setBackground(presenceInBackground.newDrawable());
+        } else if (kind == CompactTimeline.KIND_LEAVE) {
             actionView.setTextColor(Color.rgb(102, 102, 102));
-            actionView.setBackground(mainActivity.getResources().getDrawable(R.drawable.presence_out));
+            if (presenceOutBackground == null) {
+                presenceOutBackground = mainActivity.getResources().getDrawable(R.drawable.presence_out).getConstantState();
+            }
+            actionView.setBackground(presenceOutBackground.newDrawable());
         }
 
-        String actionText = this.createActionText(presenceMessage.clientId, presenceMessage.action, presenceMessage.timestamp);
+        String actionText = this.createActionText(timeline.senderAt(position), kind, timeline.timestampAt(position));
         actionView.setText(actionText);
     }
 
-    private String createActionText(String clientId, PresenceMessage.Action action, long timestamp) {
+    private String createActionText(String clientId, byte kind, long timestamp) {
         String actionText = "";
-        switch (action) {
-            case enter:
+        switch (kind) {
+            case CompactTimeline.KIND_ENTER:
                 actionText = "entered";
                 break;
-            case leave:
+            case CompactTimeline.KIND_LEAVE:
                 actionText = "left";
                 break;
             default:
@@ -132,4 +183,19 @@ public class ChatScreenAdapter extends BaseAdapter {
         String relativeDateText = DateUtils.getRelativeTimeSpanString(mainActivity.getApplicationContext(), timestamp).toString();
         return String.format("%s %s the channel %s", handle, actionText, relativeDateText);
     }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView username;
+        final TextView timestamp;
+        final TextView message;
+        final TextView action;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            this.username = (TextView) itemView.findViewById(R.id.username);
+            this.timestamp = (TextView) itemView.findViewById(R.id.timestamp);
+            this.message = (TextView) itemView.findViewById(R.id.message);
+            this.action = (TextView) itemView.findViewById(R.id.action);
+        }
+    }
 }
@@ -0,0 +1,404 @@
+package io.ably.demo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import android.content.ComponentCallbacks2;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import io.ably.demo.connection.Connection;
+import io.ably.demo.connection.ConnectionCallback;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.PresenceMessage;
+
+/**
+ * Chat state for the lifetime of the process: the rooms the user has open, the presence roster and
+ * who is typing in the current one. Realtime events and history pages are applied here whether or not
+ * an Activity is showing, so a recreated Activity only binds to it and renders what is already in memory.
+ * <p>
+ * Each {@link ChatRoom} mirrors its timeline to disk and sends through its own {@link Outbox}. Rooms
+ * stay in memory only while their channel is warm; the {@link Connection} detaches the least recently
+ * used one beyond its limit and the room is closed with it.
+ * <p>
+ * Main thread only, like the state it owns. The callbacks it hands the {@link Connection} belong to the
+ * session and post back to the main thread, so the singleton never holds on to an Activity; connection
+ * outcomes reach the bound {@link Observer} instead.
+ */
+public class ChatSession {
+
+    public interface Observer {
+        /**
+         * Connected, on join and again after every reconnect.
+         */
+        void onConnected();
+
+        /**
+         * Presence was entered on the current room.
+         */
+        void onRoomEntered();
+
+        void onRoomChanged();
+
+        void onMembersChanged();
+
+        void onTypingChanged();
+
+        /**
+         * The room windows were shrunk under memory pressure at {@code level}; drop view caches too.
+         */
+        void onMemoryTrimmed(int level);
+
+        void onError(String title, Exception ex);
+    }
+
+    private static final int MIN_WINDOW_ROWS = 100;
+    private static ChatSession instance;
+
+    private final HashMap<String, ChatRoom> rooms = new HashMap<>();
+    private final PresenceRoster presenceRoster = new PresenceRoster();
+    private final MentionIndex mentionIndex = new MentionIndex();
+    private final TypingTracker typingTracker = new TypingTracker();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable expireTypists = () -> {
+        if (typingTracker.expire(SystemClock.uptimeMillis())) {
+            notifyTypingChanged();
+        }
+        scheduleTypingExpiry();
+    };
+    private final ChatRoom.Host roomHost = new ChatRoom.Host() {
+        @Override
+        public void onPresenceEvents(ChatRoom room, List<PresenceMessage> events) {
+            if (room == currentRoom) {
+                applyPresenceEvents(events);
+            }
+        }
+
+        @Override
+        public void onError(String title, Exception ex) {
+            notifyError(title, ex);
+        }
+    };
+    private final int maxRows;
+    private Observer observer;
+    private File storageDir;
+    private ChatRoom currentRoom;
+    private boolean online;
+    private String clientId;
+    private boolean started;
+    private final ConnectionCallback connectionCallback = ex -> mainHandler.post(() -> {
+        if (ex != null) {
+            notifyError("Unable to connect", ex);
+            return;
+        }
+        if (observer != null) {
+            observer.onConnected();
+        }
+        start();
+    });
+    private final ConnectionCallback typingCallback = ex -> {
+        if (ex != null) {
+            mainHandler.post(() -> notifyError("Unable to send typing notification", ex));
+        }
+    };
+
+    private ChatSession(int maxRows) {
+        this.maxRows = maxRows;
+        presenceRoster.setListener(new PresenceRoster.Listener() {
+            @Override
+            public void onMemberAdded(String clientId) {
+                mentionIndex.add(clientId);
+            }
+
+            @Override
+            public void onMemberRemoved(String clientId) {
+                mentionIndex.remove(clientId);
+            }
+        });
+    }
+
+    /**
+     * Must first be called on the main thread, whose Choreographer paces inbound events.
+     */
+    public static ChatSession getInstance() {
+        if (instance == null) {
+            instance = new ChatSession(BuildConfig.TIMELINE_MAX_ROWS);
+        }
+        return instance;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public ChatRoom getCurrentRoom() {
+        return currentRoom;
+    }
+
+    public PresenceRoster getPresenceRoster() {
+        return presenceRoster;
+    }
+
+    public MentionIndex getMentionIndex() {
+        return mentionIndex;
+    }
+
+    public TypingTracker getTypingTracker() {
+        return typingTracker;
+    }
+
+    /**
+     * Keeps each room's timeline and outbox under {@code storageDir} and restores the default room from
+     * it. Call once at process start, before {@link #connect}.
+     */
+    public void setStorageDir(File storageDir) {
+        this.storageDir = storageDir;
+        Connection connection = Connection.getInstance();
+        connection.setConnectionStateCallback(connected -> mainHandler.post(() -> {
+            online = connected;
+            for (ChatRoom room : rooms.values()) {
+                room.setOnline(connected);
+            }
+        }));
+        connection.setChannelEvictedCallback(channelName -> mainHandler.post(() -> {
+            ChatRoom room = rooms.get(channelName);
+            if (room != null && room != currentRoom) {
+                rooms.remove(channelName);
+                room.close();
+            }
+        }));
+        currentRoom = roomFor(Connection.DEFAULT_CHANNEL_NAME);
+        register(currentRoom);
+    }
+
+    public void send(String text) {
+        currentRoom.send(clientId, text);
+    }
+
+    public void bind(Observer observer) {
+        this.observer = observer;
+    }
+
+    public void unbind(Observer observer) {
+        if (this.observer == observer) {
+            this.observer = null;
+        }
+    }
+
+    /**
+     * Joins as {@code clientId} and connects; once connected the observer hears {@link Observer#onConnected}
+     * and the current room is entered.
+     */
+    public void connect(String clientId) throws AblyException {
+        this.clientId = clientId;
+        Connection.getInstance().establishConnectionForID(clientId, connectionCallback);
+    }
+
+    /**
+     * Reconnects if the connection was suspended while in the background and re-syncs the members once it is back.
+     */
+    public void onAppForegrounded() {
+        Connection.getInstance().onAppForegrounded(ex -> mainHandler.post(() -> {
+            if (ex != null) {
+                notifyError("Unable to resume the connection", ex);
+                return;
+            }
+            resyncMembers();
+        }));
+    }
+
+    public void publishTypingState(boolean isTyping) {
+        Connection.getInstance().publishTypingState(isTyping, typingCallback);
+    }
+
+    /**
+     * Switches to {@code channelName}, attaching it if it is not warm and the session has started. The roster and typing state are
+     * reset and refetched for it; its timeline is whatever is in memory or on disk until history arrives.
+     */
+    public void openRoom(String channelName) throws AblyException {
+        if (currentRoom != null && currentRoom.getName().equals(channelName)) {
+            return;
+        }
+        currentRoom = roomFor(channelName);
+        presenceRoster.clear();
+        typingTracker.clear();
+        if (observer != null) {
+            observer.onRoomChanged();
+        }
+        notifyMembersChanged();
+        notifyTypingChanged();
+        if (started) {
+            enter(currentRoom, "Unable to open channel");
+        } else {
+            register(currentRoom);
+        }
+    }
+
+    /**
+     * Enters the current room the first time the connection is up.
+     */
+    private void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        try {
+            enter(currentRoom, "Unable to connect to Ably service");
+        } catch (AblyException e) {
+            notifyError("Unable to connect to Ably service", e);
+        }
+    }
+
+    /**
+     * Refetches the member list, e.g. after the connection was resumed and events may have been missed.
+     */
+    private void resyncMembers() {
+        presenceRoster.beginSync();
+        syncMembers(currentRoom);
+    }
+
+    /**
+     * Shrinks every room's window to a fraction of its cap depending on memory pressure, whether or not
+     * an Activity is bound. Once the UI is hidden the process may be killed, so each room's queued rows
+     * are also written out on a background thread. Called from the Application.
+     */
+    public void onTrimMemory(int level) {
+        int window;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            window = MIN_WINDOW_ROWS;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            window = Math.max(MIN_WINDOW_ROWS, maxRows / 2);
+        } else {
+            return;
+        }
+        for (ChatRoom room : rooms.values()) {
+            room.trimTo(window);
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            final List<ChatRoom> toFlush = new ArrayList<>(rooms.values());
+            new Thread(() -> {
+                for (ChatRoom room : toFlush) {
+                    room.flushStore();
+                }
+            }, "store-flush").start();
+        }
+        if (observer != null) {
+            observer.onMemoryTrimmed(level);
+        }
+    }
+
+    private ChatRoom roomFor(String channelName) {
+        ChatRoom room = rooms.get(channelName);
+        if (room == null) {
+            room = new ChatRoom(channelName, storageDir, maxRows, mainHandler, roomHost);
+            room.setOnline(online);
+            rooms.put(channelName, room);
+        }
+        return room;
+    }
+
+    /**
+     * Attaches and enters {@code room}; the observer hears {@link Observer#onRoomEntered} once presence is
+     * entered, or the error under {@code errorTitle}.
+     */
+    /**
+     * Records {@code room} as current with the connection before it is entered, so it is evicted and
+     * closed like an entered one.
+     */
+    private void register(ChatRoom room) {
+        Connection.getInstance().registerChannel(room.getName(), room.messageListener, room.presenceListener);
+    }
+
+    private void enter(final ChatRoom room, final String errorTitle) throws AblyException {
+        presenceRoster.beginSync();
+        Connection.getInstance().openChannel(room.getName(), room.messageListener, room.presenceListener, ex -> {
+            if (ex == null) {
+                syncMembers(room);
+            }
+            mainHandler.post(() -> {
+                if (ex != null) {
+                    notifyError(errorTitle, ex);
+                    return;
+                }
+                room.startHistory();
+                if (room == currentRoom && observer != null) {
+                    observer.onRoomEntered();
+                }
+            });
+        });
+    }
+
+    private void syncMembers(final ChatRoom room) {
+        Connection.getInstance().syncPresentMembers(room.getName(), (members, ex) -> mainHandler.post(() -> {
+            if (room != currentRoom) {
+                return;
+            }
+            if (ex != null) {
+                notifyError("Unable to retrieve present members", ex);
+            }
+            presenceRoster.applySync(members);
+            notifyMembersChanged();
+        }));
+    }
+
+    /**
+     * Applies the current room's membership and typing events from one frame; the observer hears about
+     * each kind of change once.
+     */
+    private void applyPresenceEvents(List<PresenceMessage> events) {
+        boolean membersChanged = false;
+        boolean typistsChanged = false;
+        long now = SystemClock.uptimeMillis();
+        for (PresenceMessage presenceMessage : events) {
+            switch (presenceMessage.action) {
+                case update:
+                    if (!presenceMessage.clientId.equals(clientId)) {
+                        typistsChanged |= typingTracker.apply(presenceMessage.clientId, Payloads.isTyping(presenceMessage), now);
+                    }
+                    break;
+                default:
+                    membersChanged |= presenceRoster.apply(presenceMessage);
+                    if (!presenceRoster.contains(presenceMessage.clientId)) {
+                        typistsChanged |= typingTracker.apply(presenceMessage.clientId, false, now);
+                    }
+                    break;
+            }
+        }
+
+        if (membersChanged) {
+            notifyMembersChanged();
+        }
+        if (typistsChanged) {
+            notifyTypingChanged();
+        }
+        scheduleTypingExpiry();
+    }
+
+    private void scheduleTypingExpiry() {
+        mainHandler.removeCallbacks(expireTypists);
+        long nextExpiry = typingTracker.nextExpiry();
+        if (nextExpiry != Long.MAX_VALUE) {
+            mainHandler.postAtTime(expireTypists, nextExpiry);
+        }
+    }
+
+    private void notifyMembersChanged() {
+        if (observer != null) {
+            observer.onMembersChanged();
+        }
+    }
+
+    private void notifyTypingChanged() {
+        if (observer != null) {
+            observer.onTypingChanged();
+        }
+    }
+
+    private void notifyError(String title, Exception ex) {
+        if (observer != null) {
+            observer.onError(title, ex);
+        }
+    }
+}
@@ -2,16 +2,110 @@ package io.ably.demo;
 
 import static timber.log.Timber.DebugTree;
 
+import java.io.File;
+
 import android.app.Application;
+import io.ably.demo.connection.AblyTransport;
+import io.ably.demo.connection.Connection;
+import io.ably.demo.connection.FakeTraffic;
+import io.ably.demo.connection.FakeTransport;
+import io.ably.demo.connection.TokenCache;
+import io.ably.demo.logging.LogBuffer;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.util.Log;
 import timber.log.Timber;
 
 public class DemoAblyApplication extends Application {
 
+    private static final String AUTH_URL = "https://www.ably.io/ably-auth/token-request/demos";
+    // Also named in res/xml/backup_rules.xml, which keeps it out of backups.
+    private static final String TOKEN_FILE = "auth-token.bin";
+    private static final String PREFERENCES = "session";
+    private static final String KEY_LAST_USER_NAME = "lastUserName";
+
+    private LogBuffer logBuffer;
+
     @Override
     public void onCreate() {
         super.onCreate();
+        int logLevel = BuildConfig.DEBUG ? Log.DEBUG : Log.INFO;
+        logBuffer = new LogBuffer(new File(getFilesDir(), "log-dump.txt"), LogBuffer.DEFAULT_CAPACITY, logLevel);
         if (BuildConfig.DEBUG) {
             Timber.plant(new DebugTree());
         }
+        Timber.plant(logBuffer.asTree());
+        Connection.getInstance().setTransport(BuildConfig.FAKE_TRANSPORT ? fakeTransport() : ablyTransport(logLevel));
+        Connection.getInstance().setMaxWarmChannels(BuildConfig.MAX_WARM_CHANNELS);
+        ChatSession.getInstance().setStorageDir(getFilesDir());
+        if (BuildConfig.WARM_UP_CONNECTION) {
+            new Thread(() -> {
+                String lastUserName = getLastUserName();
+                if (lastUserName == null) {
+                    return;
+                }
+                try {
+                    Connection.getInstance().warmUp(lastUserName);
+                } catch (AblyException e) {
+                    Timber.w(e, "Warm-up failed");
+                }
+            }, "connection-warm-up").start();
+        }
+    }
+
+    /**
+     * The session's rooms outlive the Activity, so their windows are trimmed here rather than only
+     * while it is showing.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        ChatSession.getInstance().onTrimMemory(level);
+    }
+
+    /**
+     * The name the user last joined with, or null before the first join.
+     */
+    public String getLastUserName() {
+        return getSharedPreferences(PREFERENCES, MODE_PRIVATE).getString(KEY_LAST_USER_NAME, null);
+    }
+
+    public void setLastUserName(String userName) {
+        getSharedPreferences(PREFERENCES, MODE_PRIVATE).edit().putString(KEY_LAST_USER_NAME, userName).apply();
+    }
+
+    private AblyTransport ablyTransport(int logLevel) {
+        AblyTransport transport = new AblyTransport(AUTH_URL, logBuffer, logLevel);
+        transport.setUseBinaryProtocol(BuildConfig.BINARY_PROTOCOL);
+        transport.setTokenCache(new TokenCache(new File(getFilesDir(), TOKEN_FILE)));
+        return transport;
+    }
+
+    /**
+     * A fake service with a busy default channel: 50 ms latency, a short disconnect every two minutes,
+     * 2000 messages of history and a steady stream of messages, presence changes and typing.
+     */
+    private static FakeTransport fakeTransport() {
+        FakeTransport transport = new FakeTransport();
+        transport.setLatencyMs(50);
+        transport.setDisconnects(120_000, 3_000);
+        FakeTraffic traffic = new FakeTraffic(transport, Connection.DEFAULT_CHANNEL_NAME, 200, 1);
+        traffic.seedHistory(2000, 1000);
+        traffic.setMessagesPerSecond(1000);
+        traffic.setPresencePerSecond(20);
+        traffic.setTypingPerSecond(200);
+        traffic.start();
+        return transport;
+    }
+
+    public LogBuffer getLogBuffer() {
+        return logBuffer;
+    }
+
+    /**
+     * Changes what is kept in the log buffer, both from Timber and from the Ably library.
+     */
+    public void setLogLevel(int logLevel) {
+        logBuffer.setLevel(logLevel);
+        Connection.getInstance().setLogLevel(logLevel);
     }
 }
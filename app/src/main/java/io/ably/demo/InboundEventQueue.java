@@ -0,0 +1,199 @@
+package io.ably.demo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.view.Choreographer;
+import io.ably.demo.metrics.Counter;
+import io.ably.demo.metrics.Metrics;
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.PresenceMessage;
+
+/**
+ * Hands realtime events from the Ably library's threads to the main thread. Producers only enqueue;
+ * the first event after a drain schedules a Choreographer frame callback, and that frame drains
+ * what is waiting as one batch. The main thread is therefore the single writer of chat state and
+ * a burst costs one update per frame.
+ * <p>
+ * Events are split into three lanes drained in priority order: chat messages, then membership
+ * (enter/leave), then typing updates. Each frame normally takes at most {@link #MAX_EVENTS_PER_FRAME}
+ * events and leaves the rest for the next frame, so a burst is spread out instead of stalling one frame.
+ * <p>
+ * Chat and membership are never dropped or merged. Backpressure comes from the frame budget instead:
+ * while more than {@link #OVERLOAD_BACKLOG} events wait, each frame takes a share of the backlog large
+ * enough to clear it within {@link #BACKLOG_DRAIN_FRAMES} frames, up to {@link #MAX_BURST_EVENTS_PER_FRAME},
+ * so a sustained flood costs longer frames rather than unbounded growth. Typing state is ephemeral: only
+ * the latest update per clientId is kept, and while the other lanes are backed up typing updates are
+ * shed entirely.
+ */
+public class InboundEventQueue {
+
+    public interface Consumer {
+        /**
+         * Called on the main thread with chat events first, then membership, then typing updates.
+         */
+        void onEvents(List<BaseMessage> events);
+    }
+
+    static final int MAX_EVENTS_PER_FRAME = 256;
+    static final int OVERLOAD_BACKLOG = 4 * MAX_EVENTS_PER_FRAME;
+    static final int MAX_BURST_EVENTS_PER_FRAME = 8 * MAX_EVENTS_PER_FRAME;
+    static final int BACKLOG_DRAIN_FRAMES = 4;
+    static final int MAX_TYPING_CLIENTS = 128;
+    private static final Counter INBOUND_EVENTS = Metrics.counter(Metrics.INBOUND_EVENTS);
+    private static final Counter TYPING_COLLAPSED = Metrics.counter(Metrics.INBOUND_TYPING_COLLAPSED);
+    private static final Counter TYPING_DROPPED = Metrics.counter(Metrics.INBOUND_TYPING_DROPPED);
+
+    private final ConcurrentLinkedQueue<BaseMessage> chat = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<BaseMessage> membership = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<String, PresenceMessage> typing = new ConcurrentHashMap<>();
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicLong collapsedTypingUpdates = new AtomicLong();
+    private final AtomicLong droppedTypingUpdates = new AtomicLong();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    private volatile boolean closed;
+    private final Choreographer choreographer;
+    private final Consumer consumer;
+    private final Choreographer.FrameCallback drain = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameScheduled.set(false);
+            if (closed) {
+                return;
+            }
+            ArrayList<BaseMessage> batch = new ArrayList<>();
+            int budget = frameBudget(backlog.get());
+            budget -= drainLane(chat, batch, budget);
+            budget -= drainLane(membership, batch, budget);
+            drainTyping(batch, budget);
+
+            if (!batch.isEmpty()) {
+                consumer.onEvents(batch);
+            }
+            if (backlog.get() > 0 || !typing.isEmpty()) {
+                scheduleFrame();
+            }
+        }
+    };
+
+    /**
+     * Must be created on the main thread, whose Choreographer paces the drains.
+     */
+    public InboundEventQueue(Consumer consumer) {
+        this.choreographer = Choreographer.getInstance();
+        this.consumer = consumer;
+    }
+
+    public void offer(BaseMessage event) {
+        if (closed) {
+            return;
+        }
+        INBOUND_EVENTS.increment();
+        if (event instanceof PresenceMessage) {
+            PresenceMessage presenceMessage = (PresenceMessage) event;
+            if (presenceMessage.action == PresenceMessage.Action.update) {
+                offerTyping(presenceMessage);
+            } else {
+                membership.offer(presenceMessage);
+                backlog.incrementAndGet();
+            }
+        } else {
+            chat.offer(event);
+            backlog.incrementAndGet();
+        }
+        scheduleFrame();
+    }
+
+    /**
+     * Typing updates superseded by a newer one from the same client before they were applied.
+     */
+    public long getCollapsedTypingUpdates() {
+        return collapsedTypingUpdates.get();
+    }
+
+    /**
+     * Typing updates discarded because chat or membership were backed up, or too many clients were typing.
+     */
+    public long getDroppedTypingUpdates() {
+        return droppedTypingUpdates.get();
+    }
+
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    /**
+     * Drops whatever is waiting and ignores later events; no callback is made after this returns.
+     * Main thread only.
+     */
+    public void close() {
+        closed = true;
+        choreographer.removeFrameCallback(drain);
+        chat.clear();
+        membership.clear();
+        typing.clear();
+    }
+
+    private void offerTyping(PresenceMessage update) {
+        if (backlog.get() > OVERLOAD_BACKLOG || (typing.size() >= MAX_TYPING_CLIENTS && !typing.containsKey(update.clientId))) {
+            droppedTypingUpdates.incrementAndGet();
+            TYPING_DROPPED.increment();
+            return;
+        }
+        if (typing.put(update.clientId, update) != null) {
+            collapsedTypingUpdates.incrementAndGet();
+            TYPING_COLLAPSED.increment();
+        }
+    }
+
+    static int frameBudget(int backlog) {
+        if (backlog <= OVERLOAD_BACKLOG) {
+            return MAX_EVENTS_PER_FRAME;
+        }
+        return Math.min(MAX_BURST_EVENTS_PER_FRAME, backlog / BACKLOG_DRAIN_FRAMES);
+    }
+
+    private int drainLane(ConcurrentLinkedQueue<BaseMessage> lane, List<BaseMessage> batch, int budget) {
+        int drained = 0;
+        BaseMessage event;
+        while (drained < budget && (event = lane.poll()) != null) {
+            batch.add(event);
+            drained++;
+        }
+        backlog.addAndGet(-drained);
+        return drained;
+    }
+
+    private void drainTyping(List<BaseMessage> batch, int budget) {
+        if (budget <= 0 || typing.isEmpty()) {
+            return;
+        }
+        if (backlog.get() > OVERLOAD_BACKLOG) {
+            int dropped = typing.size();
+            droppedTypingUpdates.addAndGet(dropped);
+            TYPING_DROPPED.add(dropped);
+            typing.clear();
+            return;
+        }
+        Iterator<Map.Entry<String, PresenceMessage>> entries = typing.entrySet().iterator();
+        while (budget-- > 0 && entries.hasNext()) {
+            Map.Entry<String, PresenceMessage> entry = entries.next();
+            if (typing.remove(entry.getKey(), entry.getValue())) {
+                batch.add(entry.getValue());
+            }
+        }
+    }
+
+    private void scheduleFrame() {
+        if (frameScheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(drain);
+        }
+    }
+}
@@ -1,157 +1,90 @@
 package io.ably.demo;
 
-import java.util.ArrayList;
+import java.util.List;
 
-import com.google.gson.JsonObject;
-
-import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Handler;
 import android.text.Editable;
 import android.text.TextUtils;
 import android.text.TextWatcher;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.EditText;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import io.ably.demo.connection.Connection;
-import io.ably.demo.connection.ConnectionCallback;
-import io.ably.demo.connection.MessageHistoryRetrievedCallback;
-import io.ably.demo.connection.PresenceHistoryRetrievedCallback;
-import io.ably.lib.realtime.Channel;
-import io.ably.lib.realtime.Presence;
+import io.ably.demo.logging.LogBuffer;
+import io.ably.demo.metrics.Counter;
+import io.ably.demo.metrics.Metrics;
 import io.ably.lib.types.AblyException;
-import io.ably.lib.types.Message;
-import io.ably.lib.types.PresenceMessage;
+import io.ably.lib.types.BaseMessage;
 import timber.log.Timber;
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
 
-    private final Handler isUserTypingHandler = new Handler();
-    private final ArrayList<String> usersCurrentlyTyping = new ArrayList<>();
-    private final ArrayList<String> presentUsers = new ArrayList<>();
-    private final ConnectionCallback chatInitializedCallback = new ConnectionCallback() {
-        @Override
-        public void onConnectionCallback(Exception ex) {
-            if (ex != null) {
-                showError("Unable to connect to Ably service", ex);
-                return;
-            }
-
-            addCurrentMembers();
-            runOnUiThread(() -> {
+    private static final int OLDER_ROWS_PREFETCH_DISTANCE = 5;
+    private static final long METRICS_REFRESH_MS = 1000;
+    private static final int SEARCH_RESULTS_LIMIT = 50;
+    private static final String SENDER_FILTER = "from:";
 
-                findViewById(R.id.progressBar).setVisibility(View.GONE);
-                findViewById(R.id.chatLayout).setVisibility(View.VISIBLE);
-                ((EditText) findViewById(R.id.textET)).removeTextChangedListener(isUserTypingTextWatcher);
-                ((EditText) findViewById(R.id.textET)).addTextChangedListener(isUserTypingTextWatcher);
-            });
-        }
-    };
+    private final ChatSession session = ChatSession.getInstance();
+    private MentionAutocomplete mentionAutocomplete;
     ChatScreenAdapter adapter;
-    private final MessageHistoryRetrievedCallback getMessageHistoryCallback = new MessageHistoryRetrievedCallback() {
+    private final ChatSession.Observer sessionObserver = new ChatSession.Observer() {
         @Override
-        public void onMessageHistoryRetrieved(Iterable<Message> messages, Exception ex) {
-            if (ex != null) {
-                showError("Unable to retrieve message history", ex);
-                return;
-            }
-            adapter.addItems(messages);
+        public void onConnected() {
+            showChatScreen();
         }
-    };
-    private final PresenceHistoryRetrievedCallback getPresenceHistoryCallback = new PresenceHistoryRetrievedCallback() {
+
         @Override
-        public void onPresenceHistoryRetrieved(Iterable<PresenceMessage> presenceMessages) {
-            ArrayList<PresenceMessage> messagesExceptUpdates = new ArrayList<>();
-            for (PresenceMessage message : presenceMessages) {
-                if (message.action != PresenceMessage.Action.update) {
-                    messagesExceptUpdates.add(message);
-                }
+        public void onRoomEntered() {
+            showChatLayout();
+        }
+
+        @Override
+        public void onRoomChanged() {
+            if (adapter != null) {
+                bindRoom();
             }
+        }
 
-            adapter.addItems(messagesExceptUpdates);
+        @Override
+        public void onMembersChanged() {
+            updatePresentUsersBadge();
         }
-    };
-    Channel.MessageListener messageListener = new Channel.MessageListener() {
+
         @Override
-        public void onMessage(Message message) {
-            adapter.addItem(message);
+        public void onTypingChanged() {
+            renderTypingIndicator();
         }
-    };
-    Presence.PresenceListener presenceListener = new Presence.PresenceListener() {
+
         @Override
-        public void onPresenceMessage(final PresenceMessage presenceMessage) {
-            switch (presenceMessage.action) {
-                case enter:
-                    adapter.addItem(presenceMessage);
-                    presentUsers.add(presenceMessage.clientId);
-                    updatePresentUsersBadge();
-                    break;
-                case leave:
-                    adapter.addItem(presenceMessage);
-                    presentUsers.remove(presenceMessage.clientId);
-                    updatePresentUsersBadge();
-                    break;
-                case update:
-                    if (!presenceMessage.clientId.equals(Connection.getInstance().userName)) {
-                        runOnUiThread(() -> {
-                            boolean isUserTyping = ((JsonObject) presenceMessage.data).get("isTyping").getAsBoolean();
-                            if (isUserTyping) {
-                                usersCurrentlyTyping.add(presenceMessage.clientId);
-                            } else {
-                                usersCurrentlyTyping.remove(presenceMessage.clientId);
-                            }
-
-                            if (usersCurrentlyTyping.size() > 0) {
-                                StringBuilder messageToShow = new StringBuilder();
-                                switch (usersCurrentlyTyping.size()) {
-                                    case 1:
-                                        messageToShow.append(usersCurrentlyTyping.get(0) + " is typing");
-                                        break;
-                                    case 2:
-                                        messageToShow.append(usersCurrentlyTyping.get(0) + " and ");
-                                        messageToShow.append(usersCurrentlyTyping.get(1) + " are typing");
-                                        break;
-                                    default:
-                                        if (usersCurrentlyTyping.size() > 4) {
-                                            messageToShow.append(usersCurrentlyTyping.get(0) + ", ");
-                                            messageToShow.append(usersCurrentlyTyping.get(1) + ", ");
-                                            messageToShow.append(usersCurrentlyTyping.get(2) + " and other are typing");
-                                        } else {
-                                            int i;
-                                            for (i = 0; i < usersCurrentlyTyping.size() - 1; ++i) {
-                                                messageToShow.append(usersCurrentlyTyping.get(i) + ", ");
-                                            }
-                                            messageToShow.append(" and " + usersCurrentlyTyping.get(i) + " are typing");
-                                        }
-                                }
-
-                                ((TextView) findViewById(R.id.isTyping)).setText(messageToShow.toString());
-                                findViewById(R.id.isTypingContainer).setVisibility(View.VISIBLE);
-                            } else {
-                                findViewById(R.id.isTypingContainer).setVisibility(View.GONE);
-                            }
-                        });
-                    }
-                    break;
+        public void onMemoryTrimmed(int level) {
+            if (adapter == null) {
+                return;
+            }
+            adapter.onTrimMemory();
+            if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+                ((RecyclerView) findViewById(R.id.chatList)).getRecycledViewPool().clear();
             }
         }
+
+        @Override
+        public void onError(String title, Exception ex) {
+            showError(title, ex);
+        }
     };
-    private boolean activityPaused = false;
-    private boolean typingFlag = false;
-    private final Runnable isUserTypingRunnable = () -> {
-        Connection.getInstance().userHasEndedTyping();
-        typingFlag = false;
-    };
+    private final TypingPublisher typingPublisher = new TypingPublisher(session::publishTypingState);
     private final TextWatcher isUserTypingTextWatcher = new TextWatcher() {
         @Override
         public void beforeTextChanged(CharSequence s, int start, int count, int after) {
@@ -165,54 +98,55 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
         @Override
         public void afterTextChanged(Editable s) {
-            if (!typingFlag) {
-                Connection.getInstance().userHasStartedTyping(ex -> {
-                    if (ex != null) {
-                        showError("Unable to send typing notification", ex);
-                    }
-                });
-                typingFlag = true;
+            if (s.length() > 0) {
+                typingPublisher.onUserInput();
+            } else {
+                typingPublisher.onInputFinished();
             }
-            isUserTypingHandler.removeCallbacks(isUserTypingRunnable);
-            isUserTypingHandler.postDelayed(isUserTypingRunnable, 5000);
         }
     };
     private String clientId;
-    private final ConnectionCallback connectionCallback = ex -> {
-        if (ex != null) {
-            showError("Unable to connect", ex);
-            return;
+    private final Counter inboundEvents = Metrics.counter(Metrics.INBOUND_EVENTS);
+    private long lastInboundEvents;
+    private final Runnable refreshMetricsOverlay = new Runnable() {
+        @Override
+        public void run() {
+            TextView overlay = (TextView) findViewById(R.id.metricsOverlay);
+            long inbound = inboundEvents.get();
+            overlay.setText(String.format("inbound %d/s%n%s", (inbound - lastInboundEvents) * 1000 / METRICS_REFRESH_MS, Metrics.report()));
+            lastInboundEvents = inbound;
+            overlay.postDelayed(this, METRICS_REFRESH_MS);
         }
-
-        runOnUiThread(() -> showChatScreen());
     };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        Connection.getInstance().setBackgroundGracePeriod(BuildConfig.BACKGROUND_GRACE_PERIOD_MS);
+        ((TextView) findViewById(R.id.usernameET)).setText(((DemoAblyApplication) getApplication()).getLastUserName());
         findViewById(R.id.joinBtn).setOnClickListener(this);
         findViewById(R.id.mentionBtn).setOnClickListener(this);
+        findViewById(R.id.roomName).setOnClickListener(this);
+        findViewById(R.id.searchBtn).setOnClickListener(this);
+        if (BuildConfig.DEBUG) {
+            findViewById(R.id.roomName).setOnLongClickListener(v -> {
+                toggleMetricsOverlay();
+                return true;
+            });
+            findViewById(R.id.metricsOverlay).setOnClickListener(v -> dumpLogs());
+        }
         ((TextView) findViewById(R.id.textET)).setOnEditorActionListener((v, actionId, event) -> {
             if (actionId == EditorInfo.IME_ACTION_SEND || event.getKeyCode() == KeyEvent.KEYCODE_ENTER) {
-                try {
-                    CharSequence messageText = ((EditText) findViewById(R.id.textET)).getText();
-
-                    if (TextUtils.isEmpty(messageText)) {
-                        return false;
-                    }
-
-                    Connection.getInstance().sendMessage(messageText.toString(), ex -> {
-                        if (ex != null) {
-                            showError("Unable to send message", ex);
-                            return;
-                        }
+                CharSequence messageText = ((EditText) findViewById(R.id.textET)).getText();
 
-                        runOnUiThread(() -> ((EditText) findViewById(R.id.textET)).setText(""));
-                    });
-                } catch (AblyException e) {
-                    e.printStackTrace();
+                if (TextUtils.isEmpty(messageText)) {
+                    return false;
                 }
+
+                typingPublisher.onInputFinished();
+                session.send(messageText.toString());
+                ((EditText) findViewById(R.id.textET)).setText("");
             }
             return false;
         });
@@ -223,51 +157,186 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
             return false;
         });
+
+        session.bind(sessionObserver);
+        if (session.getClientId() != null) {
+            this.clientId = session.getClientId();
+            showChatScreen();
+            showChatLayout();
+            updatePresentUsersBadge();
+            renderTypingIndicator();
+        }
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        if (activityPaused) {
-            Connection.getInstance().reconnectAbly();
-            activityPaused = false;
-        }
+        session.onAppForegrounded();
     }
 
+    /**
+     * Binds the list to the current room's timeline; rows restored from disk are shown at once, without
+     * waiting for the connection. The session reports every reconnect, so this only binds once per Activity.
+     */
     private void showChatScreen() {
+        if (adapter != null) {
+            return;
+        }
         findViewById(R.id.loginLayout).setVisibility(View.GONE);
 
-        adapter = new ChatScreenAdapter(this, this.clientId);
-        ((ListView) findViewById(R.id.chatList)).setAdapter(adapter);
-        try {
-            Connection.getInstance().init(messageListener, presenceListener, ex -> {
-                if (ex != null) {
-                    showError("Unable to connect", ex);
-                    return;
+        if (mentionAutocomplete != null) {
+            mentionAutocomplete.release();
+        }
+        mentionAutocomplete = new MentionAutocomplete(this, (EditText) findViewById(R.id.textET), session.getMentionIndex(), this.clientId);
+        final RecyclerView chatList = (RecyclerView) findViewById(R.id.chatList);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        layoutManager.setStackFromEnd(true);
+        chatList.setLayoutManager(layoutManager);
+        chatList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                ChatRoom room = session.getCurrentRoom();
+                room.setFollowingLatest(layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - 1);
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= OLDER_ROWS_PREFETCH_DISTANCE) {
+                    room.onScrolledNearOldest();
                 }
+            }
+        });
+        bindRoom();
+        if (session.getCurrentRoom().getTimeline().size() > 0) {
+            showChatLayout();
+        }
+    }
+
+    /**
+     * Swaps the list over to the current room's timeline.
+     */
+    private void bindRoom() {
+        final RecyclerView chatList = (RecyclerView) findViewById(R.id.chatList);
+        final ChatRoom room = session.getCurrentRoom();
+        if (adapter != null) {
+            adapter.detach();
+        }
+        adapter = new ChatScreenAdapter(this, room, this.clientId);
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                if (room.isFollowingLatest()) {
+                    chatList.scrollToPosition(adapter.getItemCount() - 1);
+                }
+            }
+        });
+        chatList.setAdapter(adapter);
+        ((TextView) findViewById(R.id.roomName)).setText(room.getName());
+    }
 
-                chatInitializedCallback.onConnectionCallback(ex);
+    /**
+     * Debug builds only: long-pressing the room bar shows latency percentiles and counters, refreshed every second.
+     */
+    private void toggleMetricsOverlay() {
+        View overlay = findViewById(R.id.metricsOverlay);
+        overlay.removeCallbacks(refreshMetricsOverlay);
+        if (overlay.getVisibility() == View.VISIBLE) {
+            overlay.setVisibility(View.GONE);
+            return;
+        }
+        lastInboundEvents = inboundEvents.get();
+        overlay.setVisibility(View.VISIBLE);
+        refreshMetricsOverlay.run();
+    }
 
+    /**
+     * Writes the in-memory log to the dump file; debug builds trigger it by tapping the metrics overlay.
+     */
+    private void dumpLogs() {
+        LogBuffer logBuffer = ((DemoAblyApplication) getApplication()).getLogBuffer();
+        logBuffer.dumpAsync();
+        Toast.makeText(this, "Log written to " + logBuffer.getDumpFile(), Toast.LENGTH_SHORT).show();
+    }
+
+    private void showRoomPicker() {
+        final EditText roomInput = new EditText(this);
+        roomInput.setSingleLine(true);
+        roomInput.setText(session.getCurrentRoom().getName());
+        new AlertDialog.Builder(this)
+            .setTitle("Open channel")
+            .setView(roomInput)
+            .setPositiveButton("Open", (dialog, which) -> {
+                String channelName = roomInput.getText().toString().trim();
+                if (TextUtils.isEmpty(channelName)) {
+                    return;
+                }
                 try {
-                    Connection.getInstance().getMessagesHistory(MainActivity.this.getMessageHistoryCallback);
-                    Connection.getInstance().getPresenceHistory(MainActivity.this.getPresenceHistoryCallback);
+                    session.openRoom(channelName);
                 } catch (AblyException e) {
-                    chatInitializedCallback.onConnectionCallback(e);
-                    e.printStackTrace();
+                    showError("Unable to open channel", e);
                 }
-            });
-        } catch (AblyException e) {
-            e.printStackTrace();
+            })
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+
+    /**
+     * Searches everything the current room has received; a {@code from:name} word keeps only that sender's messages.
+     */
+    private void showSearch() {
+        final EditText queryInput = new EditText(this);
+        queryInput.setSingleLine(true);
+        queryInput.setHint("Words, or " + SENDER_FILTER + "name");
+        new AlertDialog.Builder(this)
+            .setTitle("Search messages")
+            .setView(queryInput)
+            .setPositiveButton("Search", (dialog, which) -> {
+                String sender = null;
+                StringBuilder words = new StringBuilder();
+                for (String word : queryInput.getText().toString().trim().split("\\s+")) {
+                    if (word.startsWith(SENDER_FILTER) && word.length() > SENDER_FILTER.length()) {
+                        sender = word.substring(SENDER_FILTER.length());
+                    } else {
+                        words.append(word).append(' ');
+                    }
+                }
+                session.getCurrentRoom().search(words.toString(), sender, SEARCH_RESULTS_LIMIT, this::showSearchResults);
+            })
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+
+    private void showSearchResults(List<BaseMessage> messages) {
+        if (isFinishing()) {
+            return;
         }
+        String[] lines = new String[messages.size()];
+        for (int i = 0; i < lines.length; i++) {
+            BaseMessage message = messages.get(i);
+            lines[i] = DateUtils.getRelativeTimeSpanString(getApplicationContext(), message.timestamp) + "  "
+                + message.clientId + ": " + CompactTimeline.textOf(message);
+        }
+        new AlertDialog.Builder(this)
+            .setTitle(lines.length == 0 ? "No messages found" : "Messages found")
+            .setItems(lines, null)
+            .setPositiveButton("Close", null)
+            .show();
     }
 
-    private void addCurrentMembers() {
-        for (PresenceMessage presenceMessage : Connection.getInstance().getPresentUsers()) {
-            if (!presenceMessage.clientId.equals(Connection.getInstance().userName)) {
-                presentUsers.add(presenceMessage.clientId);
-            }
+    private void showChatLayout() {
+        findViewById(R.id.loginLayout).setVisibility(View.GONE);
+        findViewById(R.id.progressBar).setVisibility(View.GONE);
+        findViewById(R.id.chatLayout).setVisibility(View.VISIBLE);
+        ((EditText) findViewById(R.id.textET)).removeTextChangedListener(isUserTypingTextWatcher);
+        ((EditText) findViewById(R.id.textET)).addTextChangedListener(isUserTypingTextWatcher);
+        ((EditText) findViewById(R.id.textET)).removeTextChangedListener(mentionAutocomplete);
+        ((EditText) findViewById(R.id.textET)).addTextChangedListener(mentionAutocomplete);
+    }
+
+    private void renderTypingIndicator() {
+        TypingTracker typingTracker = session.getTypingTracker();
+        if (typingTracker.isEmpty()) {
+            findViewById(R.id.isTypingContainer).setVisibility(View.GONE);
+            return;
         }
-        updatePresentUsersBadge();
+        ((TextView) findViewById(R.id.isTyping)).setText(typingTracker.label());
+        findViewById(R.id.isTypingContainer).setVisibility(View.VISIBLE);
     }
 
     @Override
@@ -284,24 +353,26 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
                 try {
                     this.clientId = ((TextView) findViewById(R.id.usernameET)).getText().toString();
-
-                    Connection.getInstance().establishConnectionForID(this.clientId, connectionCallback);
+                    ((DemoAblyApplication) getApplication()).setLastUserName(this.clientId);
+                    showChatScreen();
+                    session.connect(this.clientId);
                 } catch (AblyException e) {
                     showError("Unable to connect", e);
                     Timber.e(e);
                 }
                 break;
             case R.id.mentionBtn:
-                AlertDialog.Builder adBuilder = new AlertDialog.Builder(this);
-                adBuilder.setSingleChoiceItems(new PresenceAdapter(this, presentUsers, this.clientId), -1,
-                    (dialog, which) -> runOnUiThread(() -> {
-                        String textToAppend = String.format("@%s ", presentUsers.get(which));
-                        ((EditText) findViewById(R.id.textET)).append(textToAppend);
-                        dialog.cancel();
-                    }));
-                adBuilder.setTitle("Handles");
-                adBuilder.setIcon(R.drawable.user_list_title_icon);
-                adBuilder.show();
+                EditText messageInput = (EditText) findViewById(R.id.textET);
+                int cursor = Math.max(messageInput.getSelectionEnd(), 0);
+                boolean needsSpace = cursor > 0 && !Character.isWhitespace(messageInput.getText().charAt(cursor - 1));
+                messageInput.getText().insert(cursor, needsSpace ? " @" : "@");
+                messageInput.requestFocus();
+                break;
+            case R.id.roomName:
+                showRoomPicker();
+                break;
+            case R.id.searchBtn:
+                showSearch();
                 break;
         }
     }
@@ -309,11 +380,18 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     @Override
     protected void onActivityResult(int requestCode, final int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
-        runOnUiThread(() -> ((EditText) findViewById(R.id.textET)).setText(presentUsers.get(resultCode)));
+        runOnUiThread(() -> ((EditText) findViewById(R.id.textET)).setText(session.getPresenceRoster().snapshot().get(resultCode)));
     }
 
+    /**
+     * Counts the other members; the roster also holds this user once their own enter arrives.
+     */
     private void updatePresentUsersBadge() {
-        runOnUiThread(() -> ((TextView) findViewById(R.id.presenceBadge)).setText(String.valueOf(presentUsers.size())));
+        runOnUiThread(() -> {
+            PresenceRoster roster = session.getPresenceRoster();
+            int others = roster.size() - (roster.contains(session.getClientId()) ? 1 : 0);
+            ((TextView) findViewById(R.id.presenceBadge)).setText(String.valueOf(others));
+        });
     }
 
     private void showError(final String title, final Exception ex) {
@@ -327,10 +405,23 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mentionAutocomplete != null) {
+            mentionAutocomplete.release();
+        }
+        typingPublisher.release();
+        findViewById(R.id.metricsOverlay).removeCallbacks(refreshMetricsOverlay);
+        session.unbind(sessionObserver);
+        if (adapter != null) {
+            adapter.detach();
+        }
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
-        activityPaused = true;
-        Connection.getInstance().disconnectAbly();
+        Connection.getInstance().onAppBackgrounded();
     }
 }
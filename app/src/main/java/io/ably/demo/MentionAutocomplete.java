@@ -0,0 +1,117 @@
+package io.ably.demo;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.EditText;
+import androidx.appcompat.widget.ListPopupWindow;
+
+/**
+ * Inline @-autocomplete for the message field. Each keystroke inside an @-token queries a snapshot of
+ * the {@link MentionIndex} on a background thread; only the result of the latest query is shown.
+ */
+public class MentionAutocomplete implements TextWatcher {
+
+    private static final int MAX_SUGGESTIONS = 8;
+
+    private final MainActivity mainActivity;
+    private final EditText input;
+    private final MentionIndex index;
+    private final ExecutorService queryExecutor = Executors.newSingleThreadExecutor();
+    private final ListPopupWindow popup;
+    private final PresenceAdapter suggestions;
+    private int querySequence;
+    private int mentionStart = -1;
+
+    public MentionAutocomplete(MainActivity mainActivity, EditText input, MentionIndex index, String ownHandle) {
+        this.mainActivity = mainActivity;
+        this.input = input;
+        this.index = index;
+        this.suggestions = new PresenceAdapter(mainActivity, Collections.<String>emptyList(), ownHandle);
+        this.popup = new ListPopupWindow(mainActivity);
+        this.popup.setAnchorView(input);
+        this.popup.setAdapter(suggestions);
+        this.popup.setOnItemClickListener((parent, view, position, id) -> complete((String) suggestions.getItem(position)));
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        int cursor = input.getSelectionEnd();
+        int start = findMentionStart(s, cursor);
+        final int sequence = ++querySequence;
+        if (start < 0) {
+            dismiss();
+            return;
+        }
+
+        mentionStart = start;
+        final String prefix = s.subSequence(start + 1, cursor).toString();
+        final MentionIndex.Snapshot snapshot = index.snapshot();
+        queryExecutor.execute(() -> {
+            final List<String> matches = snapshot.query(prefix, MAX_SUGGESTIONS);
+            mainActivity.runOnUiThread(() -> show(sequence, matches));
+        });
+    }
+
+    public void release() {
+        queryExecutor.shutdownNow();
+        dismiss();
+    }
+
+    private void show(int sequence, List<String> matches) {
+        if (sequence != querySequence || mainActivity.isFinishing()) {
+            return;
+        }
+        if (matches.isEmpty()) {
+            dismiss();
+            return;
+        }
+        suggestions.setItems(matches);
+        popup.show();
+    }
+
+    private void complete(String handle) {
+        int cursor = input.getSelectionEnd();
+        if (mentionStart >= 0 && mentionStart < cursor) {
+            input.getText().replace(mentionStart, cursor, String.format("@%s ", handle));
+        }
+        dismiss();
+    }
+
+    private void dismiss() {
+        mentionStart = -1;
+        if (popup.isShowing()) {
+            popup.dismiss();
+        }
+    }
+
+    /**
+     * Position of the '@' opening the token that ends at {@code cursor}, or -1 if the cursor is not in a mention.
+     */
+    static int findMentionStart(CharSequence text, int cursor) {
+        for (int i = cursor - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (c == '@') {
+                return i == 0 || Character.isWhitespace(text.charAt(i - 1)) ? i : -1;
+            }
+            if (Character.isWhitespace(c)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
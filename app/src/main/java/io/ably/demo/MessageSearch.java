@@ -0,0 +1,294 @@
+package io.ably.demo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.ably.demo.metrics.LatencyHistogram;
+import io.ably.demo.metrics.Metrics;
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+import timber.log.Timber;
+
+/**
+ * Full-text search over every chat message a room has received, unlike the {@link MessageStore},
+ * which only keeps the newest rows. Messages are appended to a log in the store's record format and
+ * indexed by an {@link InvertedIndex} whose refs are offsets into that log, so only matching texts
+ * are read back.
+ * <p>
+ * Messages are queued as they arrive and indexed in batches on the search thread, at most
+ * {@link #FLUSH_DELAY_MS} after the first one of a batch. The index is written to its own file every
+ * {@link #SNAPSHOT_EVERY} messages; on load, only the part of the log after the snapshot is indexed again.
+ */
+public class MessageSearch {
+
+    public interface ResultCallback {
+        /**
+         * Called on the search thread with the matching messages, newest first.
+         */
+        void onResults(List<BaseMessage> messages);
+    }
+
+    static final long FLUSH_DELAY_MS = 1000;
+    static final int MAX_BATCH = 512;
+    static final int SNAPSHOT_EVERY = 5000;
+    private static final LatencyHistogram QUERY_LATENCY = Metrics.histogram(Metrics.SEARCH_QUERY);
+
+    private final File logFile;
+    private final File indexFile;
+    private final ScheduledExecutorService executor;
+    private final Runnable flush = this::flushPending;
+    private ArrayList<BaseMessage> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private boolean closed;
+    private InvertedIndex index;
+    private DataOutputStream out;
+    private RandomAccessFile reader;
+    private long logLength;
+    private int unsnapshotted;
+
+    public MessageSearch(File logFile, File indexFile) {
+        this.logFile = logFile;
+        this.indexFile = indexFile;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-search");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues chat messages for the next batch; other rows are ignored. Safe to call from any thread;
+     * ignored once closed.
+     */
+    public void add(List<? extends BaseMessage> rows) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            for (BaseMessage row : rows) {
+                if (row instanceof Message && row.data != null) {
+                    pending.add(row);
+                }
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (pending.size() >= MAX_BATCH) {
+                flushScheduled = true;
+                executor.execute(flush);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Finds up to {@code limit} messages containing every word of {@code query}, each matched as a
+     * word prefix, and sent by {@code sender} unless that is null. Messages queued before the call are included.
+     * Once closed, the callback is never called.
+     */
+    public void search(final String query, final String sender, final int limit, final ResultCallback callback) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            executor.execute(() -> callback.onResults(find(query, sender, limit)));
+        }
+    }
+
+    /**
+     * Indexes whatever is queued and closes the files on the search thread without waiting for it, so
+     * it is safe on the main thread. Later calls do nothing.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            executor.execute(flush);
+            executor.execute(this::closeFiles);
+            executor.shutdown();
+        }
+    }
+
+    private List<BaseMessage> find(String query, String sender, int limit) {
+        flushPending();
+        long started = System.nanoTime();
+        ArrayList<BaseMessage> messages = new ArrayList<>();
+        try {
+            InvertedIndex index = loadedIndex();
+            for (int doc : index.search(query, sender, limit)) {
+                messages.add(readAt(index.refAt(doc)));
+            }
+        } catch (IOException e) {
+            Timber.e(e, "MessageSearch query");
+        }
+        QUERY_LATENCY.recordSince(started);
+        return messages;
+    }
+
+    private void flushPending() {
+        ArrayList<BaseMessage> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            InvertedIndex index = loadedIndex();
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true), 64 * 1024));
+            }
+            for (BaseMessage row : batch) {
+                long id = MessageKeys.stableIdOf(row);
+                if (index.contains(id)) {
+                    continue;
+                }
+                int written = out.size();
+                MessageStore.writeRecord(out, row);
+                index.add(row.timestamp, id, row.clientId, CompactTimeline.textOf(row), logLength);
+                logLength += out.size() - written;
+                unsnapshotted++;
+            }
+            out.flush();
+            if (unsnapshotted >= SNAPSHOT_EVERY) {
+                writeSnapshot(index);
+            }
+        } catch (IOException e) {
+            Timber.e(e, "MessageSearch write");
+            closeFiles();
+            // Reloaded from disk on next use, which also drops a partly written record.
+            this.index = null;
+        }
+    }
+
+    private InvertedIndex loadedIndex() throws IOException {
+        if (index == null) {
+            index = load();
+        }
+        return index;
+    }
+
+    /**
+     * The snapshot, if it is readable and covers no more than the log holds, plus the log after it.
+     */
+    private InvertedIndex load() throws IOException {
+        long started = System.nanoTime();
+        InvertedIndex loaded = null;
+        long covered = 0;
+        if (indexFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 64 * 1024))) {
+                covered = in.readLong();
+                loaded = InvertedIndex.readFrom(in);
+            } catch (IOException e) {
+                Timber.w(e, "Discarding search snapshot %s", indexFile);
+                loaded = null;
+            }
+        }
+        if (loaded == null || covered > logFile.length()) {
+            loaded = new InvertedIndex();
+            covered = 0;
+        }
+        int snapshotted = loaded.size();
+        logLength = indexLog(loaded, covered);
+        unsnapshotted = loaded.size() - snapshotted;
+        Timber.d("Search index for %s: %d messages, %d from the log, in %d ms", logFile.getName(), loaded.size(),
+            unsnapshotted, (System.nanoTime() - started) / 1_000_000);
+        return loaded;
+    }
+
+    /**
+     * Indexes the log's records from {@code offset} on and cuts off a torn record at the tail.
+     *
+     * @return the length of the valid log
+     */
+    private long indexLog(InvertedIndex index, long offset) throws IOException {
+        if (!logFile.exists()) {
+            return 0;
+        }
+        long valid = offset;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile), 64 * 1024))) {
+            for (long skipped = 0; skipped < offset; ) {
+                long step = in.skip(offset - skipped);
+                if (step <= 0) {
+                    return offset;
+                }
+                skipped += step;
+            }
+            while (true) {
+                byte[] record;
+                try {
+                    record = new byte[in.readInt()];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                BaseMessage row = MessageStore.decode(record);
+                index.add(row.timestamp, MessageKeys.stableIdOf(row), row.clientId, CompactTimeline.textOf(row), valid);
+                valid += 4 + record.length;
+            }
+        }
+        if (valid < logFile.length()) {
+            Timber.w("Dropping torn tail of %s at %d", logFile, valid);
+            try (RandomAccessFile truncate = new RandomAccessFile(logFile, "rw")) {
+                truncate.setLength(valid);
+            }
+        }
+        return valid;
+    }
+
+    private void writeSnapshot(InvertedIndex index) throws IOException {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+            snapshot.writeLong(logLength);
+            index.writeTo(snapshot);
+        }
+        if (!temp.renameTo(indexFile)) {
+            throw new IOException("Unable to replace " + indexFile);
+        }
+        unsnapshotted = 0;
+    }
+
+    private BaseMessage readAt(long ref) throws IOException {
+        if (reader == null) {
+            reader = new RandomAccessFile(logFile, "r");
+        }
+        reader.seek(ref);
+        byte[] record = new byte[reader.readInt()];
+        reader.readFully(record);
+        return MessageStore.decode(record);
+    }
+
+    private void closeFiles() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+            if (reader != null) {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Timber.w(e, "MessageSearch close");
+        }
+        out = null;
+        reader = null;
+    }
+}
@@ -0,0 +1,355 @@
+package io.ably.demo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+import timber.log.Timber;
+
+/**
+ * On-device copy of the newest timeline rows, kept as an append-only log of length-prefixed records.
+ * Rows are queued as they arrive and written in batches on the store's own thread, at most
+ * {@link #FLUSH_DELAY_MS} after the first one of a batch or as soon as {@link #MAX_BATCH} are waiting.
+ * <p>
+ * The log holds at most twice {@code maxRows} records; past that it is compacted into the newest
+ * {@code maxRows} distinct rows and swapped in by rename. A torn record at the tail, left by a crash
+ * mid-write, is cut off on load.
+ */
+public class MessageStore {
+
+    public interface LoadCallback {
+        void onLoaded(List<BaseMessage> rows, long newestTimestamp);
+    }
+
+    static final long FLUSH_DELAY_MS = 500;
+    static final int MAX_BATCH = 256;
+
+    private final File file;
+    private final int maxRows;
+    private final ScheduledExecutorService executor;
+    private final Runnable flush = this::flushPending;
+    private ArrayList<BaseMessage> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private boolean closed;
+    private DataOutputStream out;
+    private int recordCount = -1;
+
+    public MessageStore(File file, int maxRows) {
+        this.file = file;
+        this.maxRows = maxRows;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-store");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues renderable rows for the next batch write. Safe to call from any thread; ignored once closed.
+     */
+    public void append(List<? extends BaseMessage> rows) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            for (BaseMessage row : rows) {
+                if (CompactTimeline.kindOf(row) >= 0) {
+                    pending.add(row);
+                }
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (pending.size() >= MAX_BATCH) {
+                flushScheduled = true;
+                executor.execute(flush);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Reads the stored rows, oldest first, on the store's thread; writes queued before this call are
+     * applied first. {@code newestTimestamp} is 0 when nothing is stored.
+     */
+    public void load(final LoadCallback callback) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        executor.execute(() -> {
+            flushPending();
+            List<BaseMessage> rows = readNewest();
+            callback.onLoaded(rows, rows.isEmpty() ? 0 : rows.get(rows.size() - 1).timestamp);
+        });
+    }
+
+    /**
+     * Writes whatever is queued and waits for it, so blocks; the session calls it from a background
+     * thread once the app's UI is hidden and the process may be about to go away.
+     */
+    public void flush() {
+        Future<?> flushed;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            flushed = executor.submit(flush);
+        }
+        awaitOn(flushed);
+    }
+
+    /**
+     * Drops every stored row, e.g. when the gap to the live channel is too large to fill.
+     */
+    public void clear() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            pending.clear();
+        }
+        executor.execute(() -> {
+            closeOutput();
+            if (file.exists() && !file.delete()) {
+                Timber.w("Unable to delete %s", file);
+            }
+            recordCount = 0;
+        });
+    }
+
+    /**
+     * Writes whatever is queued and closes the log on the store's thread without waiting for it, so it
+     * is safe on the main thread. Later calls to the store do nothing.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            executor.execute(flush);
+            executor.execute(this::closeOutput);
+            executor.shutdown();
+        }
+    }
+
+    private void flushPending() {
+        ArrayList<BaseMessage> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            if (recordCount < 0) {
+                recordCount = readRecords().size();
+            }
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024));
+            }
+            for (BaseMessage row : batch) {
+                writeRecord(out, row);
+            }
+            out.flush();
+            recordCount += batch.size();
+            if (recordCount > 2 * maxRows) {
+                compact();
+            }
+        } catch (IOException e) {
+            Timber.e(e, "MessageStore write");
+            closeOutput();
+        }
+    }
+
+    private List<BaseMessage> readNewest() {
+        try {
+            List<BaseMessage> rows = readRecords();
+            recordCount = rows.size();
+            return newestDistinct(rows);
+        } catch (IOException e) {
+            Timber.e(e, "MessageStore read");
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Rewrites the log with only the newest {@code maxRows} distinct rows.
+     */
+    private void compact() throws IOException {
+        closeOutput();
+        List<BaseMessage> rows = newestDistinct(readRecords());
+        File compacted = new File(file.getPath() + ".compact");
+        try (DataOutputStream compactedOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted), 64 * 1024))) {
+            for (BaseMessage row : rows) {
+                writeRecord(compactedOut, row);
+            }
+        }
+        if (!compacted.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+        recordCount = rows.size();
+    }
+
+    private List<BaseMessage> newestDistinct(List<BaseMessage> rows) {
+        Collections.sort(rows, new ItemsTimeComparator());
+        HashSet<Long> seen = new HashSet<>();
+        ArrayList<BaseMessage> newest = new ArrayList<>(Math.min(rows.size(), maxRows));
+        for (int i = rows.size() - 1; i >= 0 && newest.size() < maxRows; i--) {
+            if (seen.add(MessageKeys.stableIdOf(rows.get(i)))) {
+                newest.add(rows.get(i));
+            }
+        }
+        Collections.reverse(newest);
+        return newest;
+    }
+
+    private List<BaseMessage> readRecords() throws IOException {
+        ArrayList<BaseMessage> rows = new ArrayList<>();
+        if (!file.exists()) {
+            return rows;
+        }
+        long validBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                try {
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                rows.add(decode(record));
+                validBytes += 4 + length;
+            }
+        }
+        if (validBytes < file.length()) {
+            Timber.w("Dropping torn tail of %s at %d", file, validBytes);
+            closeOutput();
+            try (RandomAccessFile truncate = new RandomAccessFile(file, "rw")) {
+                truncate.setLength(validBytes);
+            }
+        }
+        return rows;
+    }
+
+    static void writeRecord(DataOutputStream out, BaseMessage row) throws IOException {
+        byte[] id = bytesOf(row.id);
+        byte[] clientId = bytesOf(row.clientId);
+        byte[] connectionId = bytesOf(row.connectionId);
+        byte[] text = bytesOf(CompactTimeline.textOf(row));
+        out.writeInt(1 + 8 + 4 * 4 + length(id) + length(clientId) + length(connectionId) + length(text));
+        out.writeByte(CompactTimeline.kindOf(row));
+        out.writeLong(row.timestamp);
+        writeBytes(out, id);
+        writeBytes(out, clientId);
+        writeBytes(out, connectionId);
+        writeBytes(out, text);
+    }
+
+    static BaseMessage decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte kind = in.readByte();
+        long timestamp = in.readLong();
+        String id = readString(in);
+        String clientId = readString(in);
+        String connectionId = readString(in);
+        String text = readString(in);
+
+        BaseMessage row;
+        switch (kind) {
+            case CompactTimeline.KIND_ENTER:
+                row = new PresenceMessage(PresenceMessage.Action.enter, clientId);
+                break;
+            case CompactTimeline.KIND_LEAVE:
+                row = new PresenceMessage(PresenceMessage.Action.leave, clientId);
+                break;
+            default:
+                row = new Message(clientId, text);
+                row.clientId = clientId;
+                break;
+        }
+        row.id = id;
+        row.connectionId = connectionId;
+        row.timestamp = timestamp;
+        return row;
+    }
+
+    private static byte[] bytesOf(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void closeOutput() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            Timber.w(e, "MessageStore close");
+        }
+        out = null;
+    }
+
+    private static void awaitOn(Future<?> future) {
+        try {
+            future.get();
+        } catch (Exception e) {
+            Timber.e(e, "MessageStore");
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package io.ably.demo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.ably.demo.connection.ConnectionCallback;
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+import timber.log.Timber;
+
+/**
+ * Durable queue of outgoing chat messages. {@link #enqueue} returns at once; the message is written to
+ * disk and published in order once the connection is up, in batches of up to {@link #MAX_BATCH} with one
+ * batch in flight at a time.
+ * <p>
+ * Every message gets its id when it is created, in Ably's idempotent form {@code <base>:<index>}, and
+ * keeps it across retries and restarts, so a batch published twice is only accepted once. A batch that
+ * fails is retried with backoff up to {@link #MAX_ATTEMPTS} times, then dropped and reported so the
+ * messages behind it are not held up.
+ * <p>
+ * After {@link #close} nothing more is published: a pending retry is cancelled and calls and publish
+ * results arriving later are ignored. Unsent messages stay on disk.
+ */
+public class Outbox {
+
+    public interface Publisher {
+        void publish(Message[] batch, ConnectionCallback callback);
+    }
+
+    public interface Listener {
+        void onFailed(List<Message> messages, Exception ex);
+    }
+
+    static final int MAX_BATCH = 50;
+    static final int MAX_ATTEMPTS = 5;
+    static final long RETRY_BASE_MS = 1000;
+
+    private final File file;
+    private final Publisher publisher;
+    private final ScheduledExecutorService executor;
+    private final String idBase = randomIdBase();
+    private final AtomicLong nextIndex = new AtomicLong();
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private volatile Listener listener;
+    private volatile boolean closed;
+    private ScheduledFuture<?> retry;
+    long retryBaseMs = RETRY_BASE_MS;
+    private boolean loaded;
+    private boolean online;
+    private Message[] inFlight;
+    private int attempts;
+
+    public Outbox(File file, Publisher publisher) {
+        this(file, publisher, Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "outbox")));
+    }
+
+    Outbox(File file, Publisher publisher, ScheduledExecutorService executor) {
+        this.file = file;
+        this.publisher = publisher;
+        this.executor = executor;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * A message from {@code clientId} with a fresh idempotent id and the local time, ready to be shown
+     * and enqueued.
+     */
+    public Message newMessage(String clientId, String text) {
+        Message message = new Message(clientId, text);
+        message.id = idBase + ":" + nextIndex.getAndIncrement();
+        message.clientId = clientId;
+        message.timestamp = System.currentTimeMillis();
+        return message;
+    }
+
+    /**
+     * Reads messages left unsent by a previous run; they are published once the connection is up.
+     */
+    public void load(final MessageStore.LoadCallback callback) {
+        execute(() -> {
+            ensureLoaded();
+            List<BaseMessage> unsent = new ArrayList<BaseMessage>(queue);
+            callback.onLoaded(unsent, unsent.isEmpty() ? 0 : unsent.get(unsent.size() - 1).timestamp);
+        });
+    }
+
+    public void enqueue(final Message message) {
+        execute(() -> {
+            ensureLoaded();
+            queue.add(message);
+            persist();
+            publishNext();
+        });
+    }
+
+    /**
+     * Publishing only happens while online; going offline keeps the queue and pauses retries.
+     */
+    public void setOnline(final boolean online) {
+        execute(() -> {
+            this.online = online;
+            if (online) {
+                attempts = 0;
+                publishNext();
+            }
+        });
+    }
+
+    /**
+     * Number of messages waiting, including any batch in flight.
+     */
+    int size() {
+        try {
+            return executor.submit(() -> queue.size()).get();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (retry != null) {
+                retry.cancel(false);
+            }
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Runs {@code task} on the outbox thread unless the outbox has been closed.
+     */
+    private synchronized void execute(Runnable task) {
+        if (!closed) {
+            executor.execute(task);
+        }
+    }
+
+    private synchronized void scheduleRetry(long delayMs) {
+        if (!closed) {
+            retry = executor.schedule(this::publishNext, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void publishNext() {
+        ensureLoaded();
+        if (closed || !online || inFlight != null || queue.isEmpty()) {
+            return;
+        }
+        Message[] batch = new Message[Math.min(MAX_BATCH, queue.size())];
+        int i = 0;
+        for (Message queued : queue) {
+            if (i == batch.length) {
+                break;
+            }
+            batch[i++] = forPublish(queued);
+        }
+        inFlight = batch;
+        attempts++;
+        publisher.publish(batch, ex -> execute(() -> onPublished(batch, ex)));
+    }
+
+    private void onPublished(Message[] batch, Exception ex) {
+        if (inFlight != batch) {
+            return;
+        }
+        inFlight = null;
+        if (ex == null) {
+            attempts = 0;
+            dequeue(batch.length);
+            publishNext();
+            return;
+        }
+
+        Timber.w("Publishing %d messages failed (attempt %d): %s", batch.length, attempts, ex.getMessage());
+        if (attempts >= MAX_ATTEMPTS) {
+            attempts = 0;
+            List<Message> failed = dequeue(batch.length);
+            if (listener != null) {
+                listener.onFailed(failed, ex);
+            }
+            publishNext();
+        } else if (online) {
+            scheduleRetry(retryBaseMs << (attempts - 1));
+        }
+    }
+
+    private List<Message> dequeue(int count) {
+        ArrayList<Message> removed = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            removed.add(queue.poll());
+        }
+        persist();
+        return removed;
+    }
+
+    /**
+     * The queued copy keeps the local timestamp for display; the published one leaves it to Ably.
+     */
+    private static Message forPublish(Message queued) {
+        Message message = new Message(queued.name, queued.data);
+        message.id = queued.id;
+        message.clientId = queued.clientId;
+        return message;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte[] record;
+                try {
+                    record = new byte[in.readInt()];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                BaseMessage message = MessageStore.decode(record);
+                if (message instanceof Message) {
+                    queue.add((Message) message);
+                }
+            }
+        } catch (IOException e) {
+            Timber.e(e, "Outbox read");
+        }
+    }
+
+    /**
+     * The queue is short, so it is rewritten whole and swapped in by rename on every change.
+     */
+    private void persist() {
+        File next = new File(file.getPath() + ".next");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(next)))) {
+            for (Message message : queue) {
+                MessageStore.writeRecord(out, message);
+            }
+        } catch (IOException e) {
+            Timber.e(e, "Outbox write");
+            return;
+        }
+        if (!next.renameTo(file)) {
+            Timber.e("Outbox: unable to replace %s", file);
+        }
+    }
+
+    private static String randomIdBase() {
+        byte[] bytes = new byte[9];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder base = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            base.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return base.toString();
+    }
+}
@@ -1,6 +1,6 @@
 package io.ably.demo;
 
-import java.util.ArrayList;
+import java.util.List;
 
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,14 +11,19 @@ public class PresenceAdapter extends BaseAdapter {
 
     private final MainActivity mainActivity;
     private final String ownHandle;
-    ArrayList<String> items;
+    List<String> items;
 
-    public PresenceAdapter(MainActivity mainActivity, ArrayList<String> items, String ownHandle) {
+    public PresenceAdapter(MainActivity mainActivity, List<String> items, String ownHandle) {
         this.mainActivity = mainActivity;
         this.items = items;
         this.ownHandle = ownHandle;
     }
 
+    public void setItems(List<String> items) {
+        this.items = items;
+        notifyDataSetChanged();
+    }
+
     @Override
     public int getCount() {
         return this.items.size();
@@ -0,0 +1,83 @@
+package io.ably.demo;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Publishes the local user's typing state at most once per {@link #MIN_INTERVAL_MS}. Keystrokes only
+ * update the desired state; if the interval has not elapsed the latest state is sent when it does.
+ * While the user keeps typing, {@code isTyping:true} is repeated every {@link #HEARTBEAT_MS} so remote
+ * {@link TypingTracker}s do not expire it; {@link #IDLE_TIMEOUT_MS} without input sends {@code false}.
+ * Main thread only.
+ */
+public class TypingPublisher {
+
+    public interface Sink {
+        void publishTypingState(boolean isTyping);
+    }
+
+    static final long MIN_INTERVAL_MS = 2000;
+    static final long HEARTBEAT_MS = TypingTracker.TTL_MS / 2;
+    static final long IDLE_TIMEOUT_MS = 5000;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Sink sink;
+    private boolean desired;
+    private boolean published;
+    private long lastPublishAt = -MIN_INTERVAL_MS;
+    private boolean flushScheduled;
+    private final Runnable flush = () -> {
+        flushScheduled = false;
+        flush();
+    };
+    private final Runnable idle = () -> {
+        desired = false;
+        flush();
+    };
+
+    public TypingPublisher(Sink sink) {
+        this.sink = sink;
+    }
+
+    public void onUserInput() {
+        desired = true;
+        handler.removeCallbacks(idle);
+        handler.postDelayed(idle, IDLE_TIMEOUT_MS);
+        flush();
+    }
+
+    /**
+     * The user sent or cleared their message; stop showing them as typing.
+     */
+    public void onInputFinished() {
+        handler.removeCallbacks(idle);
+        desired = false;
+        flush();
+    }
+
+    public void release() {
+        handler.removeCallbacks(idle);
+        handler.removeCallbacks(flush);
+        flushScheduled = false;
+    }
+
+    private void flush() {
+        long now = SystemClock.uptimeMillis();
+        boolean heartbeatDue = desired && published && now - lastPublishAt >= HEARTBEAT_MS;
+        if (desired == published && !heartbeatDue) {
+            return;
+        }
+        long wait = lastPublishAt + MIN_INTERVAL_MS - now;
+        if (wait > 0) {
+            if (!flushScheduled) {
+                flushScheduled = true;
+                handler.postDelayed(flush, wait);
+            }
+            return;
+        }
+        sink.publishTypingState(desired);
+        published = desired;
+        lastPublishAt = now;
+    }
+}
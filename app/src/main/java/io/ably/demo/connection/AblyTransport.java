@@ -0,0 +1,229 @@
+package io.ably.demo.connection;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.CompletionListener;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.realtime.Presence;
+import io.ably.lib.rest.Auth;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PaginatedResult;
+import io.ably.lib.types.Param;
+import io.ably.lib.types.PresenceMessage;
+import io.ably.lib.util.Log;
+import timber.log.Timber;
+
+/**
+ * The {@link Transport} backed by the Ably realtime library, authenticating with tokens from {@code authUrl}.
+ * <p>
+ * With a {@link TokenCache} the last token is reused on connect while it is valid, saving the round
+ * trip to the auth server, and renewed on the live connection {@link #REFRESH_BEFORE_EXPIRY_MS} before
+ * it expires so the next cold start finds a fresh one.
+ */
+public class AblyTransport implements Transport {
+
+    static final long REFRESH_BEFORE_EXPIRY_MS = 5 * 60_000;
+
+    private final String authUrl;
+    private final Log.LogHandler logHandler;
+    private final int logLevel;
+    private final ScheduledExecutorService tokenRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean useBinaryProtocol = true;
+    private volatile TokenCache tokenCache;
+    private volatile AblyRealtime realtime;
+    private ScheduledFuture<?> tokenRefresh;
+
+    /**
+     * @param logHandler where the library logs to, or null for logcat
+     */
+    public AblyTransport(String authUrl, Log.LogHandler logHandler, int logLevel) {
+        this.authUrl = authUrl;
+        this.logHandler = logHandler;
+        this.logLevel = logLevel;
+    }
+
+    /**
+     * Whether frames are MessagePack rather than JSON. Takes effect from the next connect.
+     */
+    public void setUseBinaryProtocol(boolean useBinaryProtocol) {
+        this.useBinaryProtocol = useBinaryProtocol;
+    }
+
+    public void setTokenCache(TokenCache tokenCache) {
+        this.tokenCache = tokenCache;
+    }
+
+    @Override
+    public void connect(String clientId, String recoveryKey, final StateListener listener) throws AblyException {
+        ClientOptions clientOptions = new ClientOptions();
+        clientOptions.authUrl = authUrl;
+        clientOptions.logLevel = logLevel;
+        clientOptions.logHandler = logHandler;
+        clientOptions.clientId = clientId;
+        clientOptions.recover = recoveryKey;
+        clientOptions.useBinaryProtocol = useBinaryProtocol;
+        TokenCache tokenCache = this.tokenCache;
+        if (tokenCache != null) {
+            clientOptions.tokenDetails = tokenCache.get(clientId, System.currentTimeMillis());
+        }
+
+        final AblyRealtime realtime = new AblyRealtime(clientOptions);
+        this.realtime = realtime;
+        realtime.connection.on(connectionStateChange -> {
+            if (connectionStateChange.current == ConnectionState.connected) {
+                onConnected(realtime);
+            }
+            listener.onStateChanged(connectionStateChange.current);
+        });
+    }
+
+    /**
+     * Saves the token the connection is using and schedules its renewal, replacing any earlier schedule.
+     */
+    private synchronized void onConnected(final AblyRealtime connected) {
+        TokenCache tokenCache = this.tokenCache;
+        Auth.TokenDetails tokenDetails = connected.auth.getTokenDetails();
+        if (tokenCache == null || tokenDetails == null || connected != realtime) {
+            return;
+        }
+        tokenCache.put(tokenDetails);
+        if (tokenRefresh != null) {
+            tokenRefresh.cancel(false);
+        }
+        long delayMs = Math.max(0, tokenDetails.expires - REFRESH_BEFORE_EXPIRY_MS - System.currentTimeMillis());
+        tokenRefresh = tokenRefresher.schedule(() -> refreshToken(connected), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshToken(AblyRealtime connected) {
+        if (connected != realtime || connected.connection.state != ConnectionState.connected) {
+            return;
+        }
+        try {
+            connected.auth.authorize(null, null);
+            onConnected(connected);
+        } catch (AblyException e) {
+            Timber.w(e, "Token refresh failed; the library will renew it on expiry");
+        }
+    }
+
+    @Override
+    public ConnectionState getState() {
+        AblyRealtime realtime = this.realtime;
+        return realtime == null ? ConnectionState.initialized : realtime.connection.state;
+    }
+
+    @Override
+    public String getRecoveryKey() {
+        AblyRealtime realtime = this.realtime;
+        return realtime == null ? null : realtime.connection.recoveryKey;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (tokenRefresh != null) {
+                tokenRefresh.cancel(false);
+                tokenRefresh = null;
+            }
+        }
+        AblyRealtime realtime = this.realtime;
+        if (realtime != null) {
+            realtime.close();
+        }
+    }
+
+    @Override
+    public TransportChannel channel(String name) {
+        return new AblyChannel(realtime.channels.get(name));
+    }
+
+    @Override
+    public void release(String name) {
+        realtime.channels.release(name);
+    }
+
+    private static class AblyChannel implements TransportChannel {
+
+        private final Channel channel;
+
+        AblyChannel(Channel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void attach() throws AblyException {
+            channel.attach();
+        }
+
+        @Override
+        public void detach() throws AblyException {
+            channel.detach();
+        }
+
+        @Override
+        public void subscribe(Channel.MessageListener listener) throws AblyException {
+            channel.subscribe(listener);
+        }
+
+        @Override
+        public void unsubscribe(Channel.MessageListener listener) {
+            channel.unsubscribe(listener);
+        }
+
+        @Override
+        public void publish(Message[] messages, CompletionListener listener) throws AblyException {
+            channel.publish(messages, listener);
+        }
+
+        @Override
+        public PaginatedResult<Message> history(Param[] params) throws AblyException {
+            return channel.history(params);
+        }
+
+        @Override
+        public void subscribePresence(Presence.PresenceListener listener) throws AblyException {
+            channel.presence.subscribe(listener);
+        }
+
+        @Override
+        public void unsubscribePresence(Presence.PresenceListener listener) {
+            channel.presence.unsubscribe(listener);
+        }
+
+        @Override
+        public void enterPresence(Object data, CompletionListener listener) throws AblyException {
+            channel.presence.enter(data, listener);
+        }
+
+        @Override
+        public void updatePresence(Object data, CompletionListener listener) throws AblyException {
+            channel.presence.update(data, listener);
+        }
+
+        @Override
+        public void leavePresence(CompletionListener listener) throws AblyException {
+            channel.presence.leave(listener);
+        }
+
+        @Override
+        public PresenceMessage[] getPresence() throws AblyException {
+            return channel.presence.get();
+        }
+
+        @Override
+        public PaginatedResult<PresenceMessage> presenceHistory(Param[] params) throws AblyException {
+            return channel.presence.history(params);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package io.ably.demo.connection;
+
+public interface ChannelEvictedCallback {
+
+    void onChannelEvicted(String channelName);
+}
@@ -0,0 +1,211 @@
+package io.ably.demo.connection;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import io.ably.demo.metrics.LatencyHistogram;
+import io.ably.demo.metrics.Metrics;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.CompletionListener;
+import io.ably.lib.realtime.Presence;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+import timber.log.Timber;
+
+/**
+ * The channels the user has open, most recently switched to last. A channel is attached, subscribed and
+ * entered only when it is first opened; reopening a warm one costs nothing. A channel switched to before
+ * the connection is up is only registered, and attached once it is opened. Once more than
+ * {@code maxWarmChannels} are open besides the current one, the least recently used is left, detached
+ * and released, which caps both local memory and server-side subscriptions.
+ * <p>
+ * Each open channel keeps its own history pagers and the timestamp of the last message received, so
+ * it can be caught up after a reconnect.
+ */
+class ChannelManager {
+
+    private static final LatencyHistogram PRESENCE_ENTER_LATENCY = Metrics.histogram(Metrics.PRESENCE_ENTER);
+
+    static final class OpenChannel {
+        final String name;
+        final Channel.MessageListener messageListener;
+        final Presence.PresenceListener presenceListener;
+        final HistoryPager<Message> messageHistory;
+        final HistoryPager<PresenceMessage> presenceHistory;
+        /**
+         * Null while the channel is only registered.
+         */
+        volatile TransportChannel channel;
+        volatile long lastReceivedTimestamp;
+        final Channel.MessageListener trackingListener = new Channel.MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                if (message.timestamp > lastReceivedTimestamp) {
+                    lastReceivedTimestamp = message.timestamp;
+                }
+                messageListener.onMessage(message);
+            }
+        };
+
+        OpenChannel(String name, Channel.MessageListener messageListener, Presence.PresenceListener presenceListener, Executor executor) {
+            this.name = name;
+            this.messageListener = messageListener;
+            this.presenceListener = presenceListener;
+            this.messageHistory = new HistoryPager<>(name + " messages", params -> channel.history(params), executor);
+            this.presenceHistory = new HistoryPager<>(name + " presence", params -> channel.presenceHistory(params), executor);
+        }
+    }
+
+    private final LinkedHashMap<String, OpenChannel> open = new LinkedHashMap<>();
+    private final int maxWarmChannels;
+    private final Executor historyExecutor;
+    private final ChannelEvictedCallback evictedCallback;
+    private final Transport transport;
+
+    ChannelManager(Transport transport, int maxWarmChannels, Executor historyExecutor, ChannelEvictedCallback evictedCallback) {
+        this.transport = transport;
+        this.maxWarmChannels = maxWarmChannels;
+        this.historyExecutor = historyExecutor;
+        this.evictedCallback = evictedCallback;
+    }
+
+    /**
+     * Makes {@code name} the current channel without attaching it, e.g. while not yet connected, so it
+     * counts towards the limit and is evicted like any other.
+     */
+    synchronized OpenChannel register(String name, Channel.MessageListener messageListener, Presence.PresenceListener presenceListener) {
+        OpenChannel channel = makeCurrent(name, messageListener, presenceListener);
+        evictBeyondLimit();
+        return channel;
+    }
+
+    /**
+     * Makes {@code name} the current channel. A channel not yet attached is attached, subscribed and
+     * entered, and {@code entered} is called once presence is entered; for a warm one it is called
+     * straight away.
+     */
+    synchronized OpenChannel open(String name, Channel.MessageListener messageListener, Presence.PresenceListener presenceListener,
+                                  final CompletionListener entered) throws AblyException {
+        OpenChannel channel = makeCurrent(name, messageListener, presenceListener);
+        if (channel.channel != null) {
+            entered.onSuccess();
+            return channel;
+        }
+        final long started = System.nanoTime();
+        attach(channel, new CompletionListener() {
+            @Override
+            public void onSuccess() {
+                PRESENCE_ENTER_LATENCY.recordSince(started);
+                entered.onSuccess();
+            }
+
+            @Override
+            public void onError(ErrorInfo reason) {
+                entered.onError(reason);
+            }
+        });
+        evictBeyondLimit();
+        return channel;
+    }
+
+    /**
+     * The channel if it is open and attached; looking it up does not make it more recently used.
+     */
+    synchronized OpenChannel get(String name) {
+        OpenChannel channel = open.get(name);
+        return channel == null || channel.channel == null ? null : channel;
+    }
+
+    /**
+     * The attached channels.
+     */
+    synchronized List<OpenChannel> openChannels() {
+        List<OpenChannel> attached = new ArrayList<>();
+        for (OpenChannel channel : open.values()) {
+            if (channel.channel != null) {
+                attached.add(channel);
+            }
+        }
+        return attached;
+    }
+
+    /**
+     * Moves every open channel over to the transport's new connection, e.g. after it was recreated.
+     */
+    synchronized void rebind() {
+        for (OpenChannel channel : openChannels()) {
+            try {
+                attach(channel, null);
+            } catch (AblyException e) {
+                Timber.e(e, "rebind %s", channel.name);
+            }
+        }
+    }
+
+    /**
+     * Stops delivering events from every open channel; they stay open and are resubscribed by {@link #rebind}.
+     */
+    synchronized void unsubscribeAll() {
+        for (OpenChannel channel : openChannels()) {
+            channel.channel.unsubscribe(channel.trackingListener);
+            channel.channel.unsubscribePresence(channel.presenceListener);
+        }
+    }
+
+    private void attach(OpenChannel channel, CompletionListener entered) throws AblyException {
+        channel.channel = transport.channel(channel.name);
+        channel.channel.attach();
+        channel.channel.subscribe(channel.trackingListener);
+        channel.channel.subscribePresence(channel.presenceListener);
+        channel.channel.enterPresence(null, entered);
+    }
+
+    /**
+     * Moves {@code name} to the end of the map, creating it unattached if it is new.
+     */
+    private OpenChannel makeCurrent(String name, Channel.MessageListener messageListener, Presence.PresenceListener presenceListener) {
+        OpenChannel channel = open.remove(name);
+        if (channel == null) {
+            channel = new OpenChannel(name, messageListener, presenceListener, historyExecutor);
+        }
+        open.put(name, channel);
+        return channel;
+    }
+
+    /**
+     * Evicts the least recently used channels beyond {@code maxWarmChannels}; the current one, always
+     * last, is not counted.
+     */
+    private void evictBeyondLimit() {
+        Iterator<Map.Entry<String, OpenChannel>> eldest = open.entrySet().iterator();
+        while (open.size() > maxWarmChannels + 1 && eldest.hasNext()) {
+            OpenChannel channel = eldest.next().getValue();
+            eldest.remove();
+            release(channel);
+            evictedCallback.onChannelEvicted(channel.name);
+        }
+    }
+
+    private void release(OpenChannel channel) {
+        TransportChannel transportChannel = channel.channel;
+        if (transportChannel == null) {
+            return;
+        }
+        transportChannel.unsubscribe(channel.trackingListener);
+        transportChannel.unsubscribePresence(channel.presenceListener);
+        try {
+            transportChannel.leavePresence(null);
+            transportChannel.detach();
+        } catch (AblyException e) {
+            Timber.w(e, "release %s", channel.name);
+        }
+        transport.release(channel.name);
+        Timber.d("Released channel %s", channel.name);
+    }
+}
@@ -1,21 +1,29 @@
 package io.ably.demo.connection;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.gson.JsonObject;
 
-import android.annotation.SuppressLint;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
-import io.ably.lib.realtime.AblyRealtime;
+import androidx.core.os.TraceCompat;
+import io.ably.demo.ItemsTimeComparator;
+import io.ably.demo.metrics.Counter;
+import io.ably.demo.metrics.LatencyHistogram;
+import io.ably.demo.metrics.Metrics;
 import io.ably.lib.realtime.Channel;
 import io.ably.lib.realtime.CompletionListener;
 import io.ably.lib.realtime.ConnectionState;
 import io.ably.lib.realtime.Presence;
 import io.ably.lib.types.AblyException;
-import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.BaseMessage;
 import io.ably.lib.types.ErrorInfo;
 import io.ably.lib.types.Message;
 import io.ably.lib.types.PaginatedResult;
@@ -23,20 +31,42 @@ import io.ably.lib.types.Param;
 import io.ably.lib.types.PresenceMessage;
 import timber.log.Timber;
 
-@SuppressLint("StaticFieldLeak")
-@SuppressWarnings("deprecation")
 public class Connection {
 
+    public static final String DEFAULT_CHANNEL_NAME = "mobile:chat";
     private static final Connection instance = new Connection();
+    private static final JsonObject TYPING_PAYLOAD = typingPayload(true);
+    private static final JsonObject NOT_TYPING_PAYLOAD = typingPayload(false);
+    private static final int MAX_BACKGROUND_REQUESTS_IN_FLIGHT = 2;
+    private static final long DEFAULT_BACKGROUND_GRACE_PERIOD_MS = 60_000;
+    private static final int CATCH_UP_PAGE_SIZE = 100;
+    private static final int DEFAULT_MAX_WARM_CHANNELS = 3;
+    private static final LatencyHistogram CONNECT_LATENCY = Metrics.histogram(Metrics.CONNECT);
+    private static final LatencyHistogram CONNECT_CLIENT_LATENCY = Metrics.histogram(Metrics.CONNECT_CLIENT);
+    private static final LatencyHistogram JOIN_WAIT_LATENCY = Metrics.histogram(Metrics.CONNECT_JOIN_WAIT);
+    private static final LatencyHistogram PUBLISH_ACK_LATENCY = Metrics.histogram(Metrics.PUBLISH_ACK);
+    private static final LatencyHistogram PRESENCE_SYNC_LATENCY = Metrics.histogram(Metrics.PRESENCE_SYNC);
+    private static final LatencyHistogram HISTORY_OLDER_LATENCY = Metrics.histogram(Metrics.HISTORY_OLDER);
+    private static final LatencyHistogram HISTORY_NEWER_LATENCY = Metrics.histogram(Metrics.HISTORY_NEWER);
+    private static final Counter PUBLISH_FAILURES = Metrics.counter(Metrics.PUBLISH_FAILED);
     private final String TAG = Connection.class.getSimpleName();
-    private final String ABLY_CHANNEL_NAME = "mobile:chat";
-    private final String HISTORY_DIRECTION = "backwards";
-    private final String HISTORY_LIMIT = "50";
+    private final ExecutorService backgroundExecutor = Executors.newFixedThreadPool(MAX_BACKGROUND_REQUESTS_IN_FLIGHT);
+    // presence.get() blocks until the sync completes, so it gets its own thread rather than holding up history.
+    private final ExecutorService connectExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "connect"));
+    private final ExecutorService presenceExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "presence-sync"));
     public String userName;
-    private Channel sessionChannel;
-    private AblyRealtime ablyRealtime;
-    private Channel.MessageListener messageListener;
-    private Presence.PresenceListener presenceListener;
+    private Transport transport;
+    private ChannelManager channels;
+    private volatile ChannelManager.OpenChannel current;
+    private int maxWarmChannels = DEFAULT_MAX_WARM_CHANNELS;
+    private volatile ChannelEvictedCallback evictedCallback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private long backgroundGracePeriodMs = DEFAULT_BACKGROUND_GRACE_PERIOD_MS;
+    private boolean suspended;
+    private volatile ConnectionCallback connectionCallback;
+    private volatile ConnectionStateCallback stateCallback;
+    private PendingCallback warmUpCallback;
+    private final AtomicInteger connectGeneration = new AtomicInteger();
 
     private Connection() {
     }
@@ -45,173 +75,458 @@ public class Connection {
         return instance;
     }
 
-    public void establishConnectionForID(String userName, final ConnectionCallback callback) throws AblyException {
+    private static JsonObject typingPayload(boolean isTyping) {
+        JsonObject payload = new JsonObject();
+        payload.addProperty("isTyping", isTyping);
+        return payload;
+    }
+
+    /**
+     * The realtime service to connect through; set once, before connecting.
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Starts connecting as {@code userName} before the user has joined, e.g. at process start with the
+     * name used last time, so client construction, auth and the handshake overlap app startup. A later
+     * {@link #establishConnectionForID} with the same name takes this connection over; with another
+     * name it is closed. Blocks while the client is built, so call it off the main thread.
+     */
+    public synchronized void warmUp(String userName) throws AblyException {
+        if (transport == null || transport.getState() != ConnectionState.initialized) {
+            return;
+        }
         this.userName = userName;
+        warmUpCallback = new PendingCallback();
+        connect(null, warmUpCallback);
+        Timber.i("Warming up connection for %s", userName);
+    }
 
-        ClientOptions clientOptions = new ClientOptions();
+    public void establishConnectionForID(String userName, final ConnectionCallback callback) throws AblyException {
+        final long joined = System.nanoTime();
+        final AtomicBoolean waitRecorded = new AtomicBoolean();
+        ConnectionCallback timedCallback = ex -> {
+            if (ex == null && waitRecorded.compareAndSet(false, true)) {
+                long waitNanos = System.nanoTime() - joined;
+                JOIN_WAIT_LATENCY.record(waitNanos);
+                Timber.i("Connected %d ms after join", waitNanos / 1_000_000);
+            }
+            callback.onConnectionCallback(ex);
+        };
+        connectionCallback = timedCallback;
+        PendingCallback warm;
+        synchronized (this) {
+            warm = warmUpCallback;
+            warmUpCallback = null;
+            if (warm == null || !userName.equals(this.userName)) {
+                if (warm != null) {
+                    Timber.i("Dropping warm connection for %s", this.userName);
+                    transport.close();
+                }
+                this.userName = userName;
+                connect(null, timedCallback);
+                return;
+            }
+        }
+        warm.setTarget(timedCallback);
+    }
 
-        clientOptions.authUrl = "https://www.ably.io/ably-auth/token-request/demos";
-        clientOptions.logLevel = io.ably.lib.util.Log.VERBOSE;
-        clientOptions.clientId = userName;
+    private void connect(String recoveryKey, final ConnectionCallback callback) throws AblyException {
+        final long connectStarted = System.nanoTime();
+        final AtomicBoolean connectRecorded = new AtomicBoolean();
+        final int generation = connectGeneration.incrementAndGet();
+        TraceCompat.beginSection("Connection.connect");
+        try {
+            transport.connect(userName, recoveryKey, state -> {
+                if (generation != connectGeneration.get()) {
+                    // A client replaced by a later connect, e.g. a dropped warm-up, still closing.
+                    return;
+                }
+                switch (state) {
+                    case closed:
+                        break;
+                    case initialized:
+                        break;
+                    case connecting:
+                        break;
+                    case connected:
+                        if (connectRecorded.compareAndSet(false, true)) {
+                            long connectNanos = System.nanoTime() - connectStarted;
+                            CONNECT_LATENCY.record(connectNanos);
+                            Timber.i("Connected in %d ms", connectNanos / 1_000_000);
+                        }
+                        callback.onConnectionCallback(null);
+                        notifyConnectionState(true);
+                        break;
+                    case disconnected:
+                        notifyConnectionState(false);
+                        callback.onConnectionCallback(
+                            new Exception(TAG + " Ably connection was disconnected. We will retry connecting again in 30 seconds."));
+                        break;
+                    case suspended:
+                        notifyConnectionState(false);
+                        callback.onConnectionCallback(
+                            new Exception(TAG + " Ably connection was suspended. We will retry connecting again in 60 seconds."));
+                        break;
+                    case closing:
+                        notifyConnectionState(false);
+                        channels().unsubscribeAll();
+                        break;
+                    case failed:
+                        notifyConnectionState(false);
+                        callback.onConnectionCallback(new Exception(TAG + " We're sorry, Ably connection failed. Please restart the app."));
+                        break;
+                }
+            });
+        } finally {
+            TraceCompat.endSection();
+        }
+        long clientNanos = System.nanoTime() - connectStarted;
+        CONNECT_CLIENT_LATENCY.record(clientNanos);
+        Timber.d("Client built in %d ms", clientNanos / 1_000_000);
+        channels().rebind();
+    }
 
-        ablyRealtime = new AblyRealtime(clientOptions);
+    /**
+     * Created on first use, which may come before the first connect when a channel is registered.
+     */
+    private synchronized ChannelManager channels() {
+        if (channels == null) {
+            channels = new ChannelManager(transport, maxWarmChannels, backgroundExecutor, this::onChannelEvicted);
+        }
+        return channels;
+    }
 
-        ablyRealtime.connection.on(connectionStateChange -> {
-            switch (connectionStateChange.current) {
-                case closed:
-                    break;
-                case initialized:
-                    break;
-                case connecting:
-                    break;
-                case connected:
-                    sessionChannel = ablyRealtime.channels.get(ABLY_CHANNEL_NAME);
+    /**
+     * The Ably library's log level, one of the {@link io.ably.lib.util.Log} priorities. Applies to the
+     * current client straight away; the initial level is given to the {@link AblyTransport}.
+     */
+    public void setLogLevel(int logLevel) {
+        io.ably.lib.util.Log.setLevel(logLevel);
+    }
 
-                    try {
-                        sessionChannel.attach();
-                        callback.onConnectionCallback(null);
-                    } catch (AblyException e) {
-                        callback.onConnectionCallback(e);
-                        Timber.e(e, "Something went wrong attaching channel! ");
-                        return;
-                    }
-                    break;
-                case disconnected:
-                    callback.onConnectionCallback(
-                        new Exception(TAG + " Ably connection was disconnected. We will retry connecting again in 30 seconds."));
-                    break;
-                case suspended:
-                    callback.onConnectionCallback(
-                        new Exception(TAG + " Ably connection was suspended. We will retry connecting again in 60 seconds."));
-                    break;
-                case closing:
-                    sessionChannel.unsubscribe(messageListener);
-                    sessionChannel.presence.unsubscribe(presenceListener);
-                    break;
-                case failed:
-                    callback.onConnectionCallback(new Exception(TAG + " We're sorry, Ably connection failed. Please restart the app."));
-                    break;
-            }
-        });
+    /**
+     * How many channels stay attached once the user has moved on from them; set before the first
+     * channel is registered or opened.
+     */
+    public void setMaxWarmChannels(int maxWarmChannels) {
+        this.maxWarmChannels = maxWarmChannels;
     }
 
-    public PresenceMessage[] getPresentUsers() {
-        try {
-            return sessionChannel.presence.get();
-        } catch (AblyException e) {
-            Timber.e(e, "getPresentUsers: ");
-            return null;
+    public void setChannelEvictedCallback(ChannelEvictedCallback evictedCallback) {
+        this.evictedCallback = evictedCallback;
+    }
+
+    private void onChannelEvicted(String channelName) {
+        ChannelEvictedCallback evictedCallback = this.evictedCallback;
+        if (evictedCallback != null) {
+            evictedCallback.onChannelEvicted(channelName);
         }
     }
 
-    public void getMessagesHistory(final MessageHistoryRetrievedCallback callback) throws AblyException {
-        new AsyncTask<Void, Void, List<Message>>() {
-            @Override
-            protected List<Message> doInBackground(final Void... voids) {
-                try {
-                    Param limitParameter = new Param("limit", HISTORY_LIMIT);
-                    Param directionParameter = new Param("direction", HISTORY_DIRECTION);
-                    Param untilAttachParameter = new Param("untilAttach", "true");
-                    Param[] historyCallParams = { limitParameter, directionParameter, untilAttachParameter };
-
-                    PaginatedResult<Message> messages = sessionChannel.history(historyCallParams);
-                    return Arrays.asList(messages.items());
-                } catch (AblyException e) {
-                    Timber.e(e, "doInBackground: getMessagesHistry");
-                    callback.onMessageHistoryRetrieved(Collections.emptyList(), e);
+    public void setConnectionStateCallback(ConnectionStateCallback stateCallback) {
+        this.stateCallback = stateCallback;
+    }
+
+    private void notifyConnectionState(boolean connected) {
+        ConnectionStateCallback stateCallback = this.stateCallback;
+        if (stateCallback != null) {
+            stateCallback.onConnectionStateChanged(connected);
+        }
+    }
+
+    public void setBackgroundGracePeriod(long gracePeriodMs) {
+        this.backgroundGracePeriodMs = gracePeriodMs;
+    }
+
+    /**
+     * Keeps the connection open for the grace period, so switching apps for a moment costs nothing.
+     * Only once it elapses is the connection closed.
+     */
+    public void onAppBackgrounded() {
+        mainHandler.removeCallbacks(suspendConnection);
+        if (transport != null && transport.getState() != ConnectionState.initialized && !suspended) {
+            mainHandler.postDelayed(suspendConnection, backgroundGracePeriodMs);
+        }
+    }
+
+    /**
+     * Cancels a pending suspension, or, if the connection was suspended, connects afresh off the main
+     * thread. The suspension closed the old connection, so there is nothing to recover: every open
+     * channel is re-subscribed and re-entered and only the messages published after the last one each
+     * received are replayed from history. {@code onResumed} is called once that is done so presence can
+     * be re-synced; the timeline itself is kept, not rebuilt. Connection errors keep going to the
+     * callback given on join.
+     */
+    public void onAppForegrounded(final ConnectionCallback onResumed) {
+        mainHandler.removeCallbacks(suspendConnection);
+        if (!suspended) {
+            return;
+        }
+        suspended = false;
+
+        final AtomicBoolean resumed = new AtomicBoolean();
+        final ConnectionCallback resumeCallback = ex -> {
+            ConnectionCallback connectionCallback = this.connectionCallback;
+            if (connectionCallback != null) {
+                connectionCallback.onConnectionCallback(ex);
+            }
+            if (ex == null && resumed.compareAndSet(false, true)) {
+                for (ChannelManager.OpenChannel channel : channels().openChannels()) {
+                    catchUp(channel);
                 }
-                return null;
+                onResumed.onConnectionCallback(null);
             }
-
-            @Override
-            protected void onPostExecute(final List<Message> messages) {
-                if (messages != null) {
-                    callback.onMessageHistoryRetrieved(messages, null);
+        };
+        connectExecutor.execute(() -> {
+            try {
+                synchronized (this) {
+                    connect(null, resumeCallback);
                 }
+            } catch (AblyException e) {
+                Timber.e(e, "onAppForegrounded ");
+                onResumed.onConnectionCallback(e);
             }
-        }.execute();
+        });
     }
 
-    public void getPresenceHistory(final PresenceHistoryRetrievedCallback callback) throws AblyException {
-        new AsyncTask<Void, Void, List<PresenceMessage>>() {
-            @Override
-            protected List<PresenceMessage> doInBackground(final Void... voids) {
-                try {
-                    Param limitParameter = new Param("limit", HISTORY_LIMIT);
-                    Param directionParameter = new Param("direction", HISTORY_DIRECTION);
-                    Param untilAttachParameter = new Param("untilAttach", "true");
-                    Param[] presenceHistoryParams = { limitParameter, directionParameter, untilAttachParameter };
-                    PaginatedResult<PresenceMessage> messages = sessionChannel.presence.history(presenceHistoryParams);
-                    return Arrays.asList(messages.items());
-                } catch (AblyException e) {
-                    Timber.e(e, "doInBackground: getPresenceHistory");
-                    callback.onPresenceHistoryRetrieved(Collections.emptyList());
+    private final Runnable suspendConnection = () -> {
+        if (transport == null) {
+            return;
+        }
+        suspended = true;
+        disconnectAbly();
+        Timber.d("Connection suspended after %d ms in background", backgroundGracePeriodMs);
+    };
+
+    /**
+     * Replays messages published since the last one the channel received through its listener, oldest
+     * first. The boundary message itself comes back too and is dropped by the timeline as already held.
+     */
+    private void catchUp(final ChannelManager.OpenChannel channel) {
+        final long timestamp = channel.lastReceivedTimestamp;
+        if (timestamp <= 0) {
+            return;
+        }
+        backgroundExecutor.execute(() -> {
+            try {
+                Param[] params = {
+                    new Param("start", String.valueOf(timestamp)),
+                    new Param("direction", "forwards"),
+                    new Param("limit", String.valueOf(CATCH_UP_PAGE_SIZE))
+                };
+                PaginatedResult<Message> page = channel.channel.history(params);
+                while (true) {
+                    for (Message message : page.items()) {
+                        channel.trackingListener.onMessage(message);
+                    }
+                    if (!page.hasNext()) {
+                        break;
+                    }
+                    page = page.next();
                 }
-                return null;
+            } catch (AblyException e) {
+                Timber.e(e, "catchUp %s", channel.name);
             }
+        });
+    }
 
-            @Override
-            protected void onPostExecute(final List<PresenceMessage> presenceMessages) {
-                if (presenceMessages != null) {
-                    callback.onPresenceHistoryRetrieved(presenceMessages);
-                }
+    /**
+     * Fetches the current member list on the presence thread; {@code presence.get()} blocks until the
+     * channel's presence sync completes, so it must not run on a connection or UI callback, nor share a
+     * thread with the history fetches.
+     */
+    public void syncPresentMembers(String channelName, final PresenceSyncCallback callback) {
+        final ChannelManager.OpenChannel channel = channels().get(channelName);
+        if (channel == null) {
+            callback.onPresenceSynced(new PresenceMessage[0], notOpen(channelName));
+            return;
+        }
+        presenceExecutor.execute(() -> {
+            try {
+                long started = System.nanoTime();
+                PresenceMessage[] members = channel.channel.getPresence();
+                PRESENCE_SYNC_LATENCY.recordSince(started);
+                callback.onPresenceSynced(members, null);
+            } catch (AblyException e) {
+                Timber.e(e, "syncPresentMembers: ");
+                callback.onPresenceSynced(new PresenceMessage[0], e);
             }
-        }.execute();
+        });
     }
 
-    public void init(Channel.MessageListener listener, Presence.PresenceListener presenceListener, final ConnectionCallback callback)
-        throws AblyException {
-        sessionChannel.subscribe(listener);
-        messageListener = listener;
-        sessionChannel.presence.subscribe(presenceListener);
-        this.presenceListener = presenceListener;
-        sessionChannel.presence.enter(null, new CompletionListener() {
-            @Override
-            public void onSuccess() {
-                callback.onConnectionCallback(null);
+    /**
+     * Fetches the next page of message and presence history older than {@code before} concurrently and
+     * delivers them as one ascending batch, so the wait is the slower of the two rather than their sum.
+     * Pass {@link Long#MAX_VALUE} for the newest pages up to the attach point.
+     */
+    public void loadOlderHistory(String channelName, long before, final HistoryRetrievedCallback callback) {
+        final ChannelManager.OpenChannel channel = channels().get(channelName);
+        if (channel == null) {
+            callback.onHistoryRetrieved(new ArrayList<>(), false, notOpen(channelName));
+            return;
+        }
+        final List<List<? extends BaseMessage>> pages = new ArrayList<>(Arrays.asList(null, null));
+        final Exception[] error = new Exception[1];
+        final AtomicInteger pending = new AtomicInteger(2);
+        final long started = System.nanoTime();
+        final Runnable complete = () -> {
+            if (pending.decrementAndGet() == 0) {
+                HISTORY_OLDER_LATENCY.recordSince(started);
+                List<BaseMessage> merged = HistoryMerge.ascending(pages, new ItemsTimeComparator());
+                callback.onHistoryRetrieved(merged, channel.messageHistory.hasMore() || channel.presenceHistory.hasMore(), error[0]);
             }
+        };
 
-            @Override
-            public void onError(ErrorInfo errorInfo) {
-                callback.onConnectionCallback(new Exception(errorInfo.message));
-                Timber.e("init %s", errorInfo.message);
+        channel.messageHistory.loadOlder(before, (messages, ex) -> {
+            synchronized (pages) {
+                pages.set(0, messages);
+                if (ex != null) {
+                    error[0] = ex;
+                }
+            }
+            complete.run();
+        });
+        channel.presenceHistory.loadOlder(before, (presenceMessages, ex) -> {
+            synchronized (pages) {
+                pages.set(1, presenceMessages);
+                if (ex != null && error[0] == null) {
+                    error[0] = ex;
+                }
+            }
+            complete.run();
+        });
+    }
+
+    /**
+     * Fetches message and presence history published after {@code after}, newest first from the attach
+     * point, stopping once {@code limit} rows per stream have been read. {@code hasMore} in the callback
+     * means the limit was hit before reaching {@code after}, leaving a gap.
+     */
+    public void loadNewerHistory(String channelName, final long after, final int limit, final HistoryRetrievedCallback callback) {
+        final ChannelManager.OpenChannel open = channels().get(channelName);
+        if (open == null) {
+            callback.onHistoryRetrieved(new ArrayList<>(), false, notOpen(channelName));
+            return;
+        }
+        final TransportChannel channel = open.channel;
+        backgroundExecutor.execute(() -> {
+            try {
+                long started = System.nanoTime();
+                List<Message> messages = new ArrayList<>();
+                List<PresenceMessage> presenceMessages = new ArrayList<>();
+                boolean gap = pageNewer(params -> channel.history(params), after, limit, messages);
+                gap |= pageNewer(params -> channel.presenceHistory(params), after, limit, presenceMessages);
+                HISTORY_NEWER_LATENCY.recordSince(started);
+                List<List<? extends BaseMessage>> pages = Arrays.asList(messages, presenceMessages);
+                callback.onHistoryRetrieved(HistoryMerge.ascending(pages, new ItemsTimeComparator()), gap, null);
+            } catch (AblyException e) {
+                Timber.e(e, "loadNewerHistory ");
+                callback.onHistoryRetrieved(new ArrayList<>(), true, e);
             }
         });
     }
 
-    public void sendMessage(String message, final ConnectionCallback callback) throws AblyException {
-        sessionChannel.publish(userName, message, new CompletionListener() {
+    private static <T extends BaseMessage> boolean pageNewer(HistoryPager.Source<T> source, long after, int limit, List<T> into)
+        throws AblyException {
+        Param[] params = {
+            new Param("start", String.valueOf(after)),
+            new Param("direction", "backwards"),
+            new Param("untilAttach", "true"),
+            new Param("limit", String.valueOf(Math.min(limit, HistoryPager.MAX_PAGE_SIZE)))
+        };
+        PaginatedResult<T> page = source.history(params);
+        while (true) {
+            into.addAll(Arrays.asList(page.items()));
+            if (!page.hasNext()) {
+                return false;
+            }
+            if (into.size() >= limit) {
+                return true;
+            }
+            page = page.next();
+        }
+    }
+
+    private static Exception notOpen(String channelName) {
+        return new Exception(channelName + " is not open");
+    }
+
+    /**
+     * Makes {@code channelName} the current channel without attaching it, for a channel switched to
+     * before the connection is up; {@link #openChannel} attaches it later. Counts towards the warm
+     * channel limit, so rooms opened while offline are evicted like any other.
+     */
+    public void registerChannel(String channelName, Channel.MessageListener listener, Presence.PresenceListener presenceListener) {
+        current = channels().register(channelName, listener, presenceListener);
+    }
+
+    /**
+     * Makes {@code channelName} the current channel, attaching, subscribing and entering it if it is not
+     * already open. {@code callback} is called once presence is entered, at once for a warm channel.
+     */
+    public void openChannel(String channelName, Channel.MessageListener listener, Presence.PresenceListener presenceListener,
+                            final ConnectionCallback callback) throws AblyException {
+        current = channels().open(channelName, listener, presenceListener, new CompletionListener() {
             @Override
             public void onSuccess() {
                 callback.onConnectionCallback(null);
-                Timber.d("Message sent!!!");
             }
 
             @Override
             public void onError(ErrorInfo errorInfo) {
                 callback.onConnectionCallback(new Exception(errorInfo.message));
+                Timber.e("openChannel %s", errorInfo.message);
             }
         });
     }
 
-    public void reconnectAbly() {
-        if (ablyRealtime != null) {
-            ablyRealtime.connection.connect();
+    /**
+     * Publishes the messages as one protocol message, so they are accepted or rejected together and in order.
+     */
+    public void publishBatch(String channelName, Message[] messages, final ConnectionCallback callback) {
+        final long started = System.nanoTime();
+        try {
+            transport.channel(channelName).publish(messages, new CompletionListener() {
+                @Override
+                public void onSuccess() {
+                    PUBLISH_ACK_LATENCY.recordSince(started);
+                    callback.onConnectionCallback(null);
+                    Timber.d("%d messages sent", messages.length);
+                }
+
+                @Override
+                public void onError(ErrorInfo errorInfo) {
+                    PUBLISH_FAILURES.increment();
+                    callback.onConnectionCallback(new Exception(errorInfo.message));
+                }
+            });
+        } catch (AblyException e) {
+            PUBLISH_FAILURES.increment();
+            callback.onConnectionCallback(e);
         }
     }
 
     public void disconnectAbly() {
-        if (ablyRealtime != null) {
-            ablyRealtime.close();
+        if (transport != null) {
+            transport.close();
         }
     }
 
-    public void userHasStartedTyping(final ConnectionCallback callback) {
-        try {
-            JsonObject payload = new JsonObject();
-            payload.addProperty("isTyping", true);
+    /**
+     * Publishes the local typing state as a presence update. The two payloads are shared, as they
+     * never change.
+     */
+    public void publishTypingState(boolean isTyping, final ConnectionCallback callback) {
+        TransportChannel channel = current == null ? null : current.channel;
+        if (transport == null || channel == null || transport.getState() != ConnectionState.connected) {
+            return;
+        }
 
-            sessionChannel.presence.update(payload, new CompletionListener() {
+        try {
+            channel.updatePresence(isTyping ? TYPING_PAYLOAD : NOT_TYPING_PAYLOAD, new CompletionListener() {
                 @Override
                 public void onSuccess() {
                     callback.onConnectionCallback(null);
@@ -223,21 +538,35 @@ public class Connection {
                 }
             });
         } catch (AblyException e) {
-            Timber.e(e, "userHasStartedTyping ");
+            Timber.e(e, "publishTypingState ");
         }
     }
 
-    public void userHasEndedTyping() {
-        if (this.ablyRealtime.connection.state != ConnectionState.connected) {
-            return;
+    /**
+     * Holds the outcome of a warm-up connect until someone joins, then forwards the latest outcome and
+     * everything after it, in order.
+     */
+    private static class PendingCallback implements ConnectionCallback {
+
+        private ConnectionCallback target;
+        private boolean completed;
+        private Exception outcome;
+
+        @Override
+        public synchronized void onConnectionCallback(Exception ex) {
+            if (target != null) {
+                target.onConnectionCallback(ex);
+            } else {
+                completed = true;
+                outcome = ex;
+            }
         }
 
-        try {
-            JsonObject payload = new JsonObject();
-            payload.addProperty("isTyping", false);
-            sessionChannel.presence.update(payload, null);
-        } catch (AblyException e) {
-            Timber.e(e, "userHasEndedTyping ");
+        synchronized void setTarget(ConnectionCallback target) {
+            this.target = target;
+            if (completed) {
+                target.onConnectionCallback(outcome);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,9 @@
+package io.ably.demo.connection;
+
+public interface ConnectionStateCallback {
+
+    /**
+     * {@code connected} is true once the channel can be published to, false when the connection drops.
+     */
+    void onConnectionStateChanged(boolean connected);
+}
@@ -0,0 +1,148 @@
+package io.ably.demo.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+
+/**
+ * Simulated users on a {@link FakeTransport} channel: chat messages, enters and leaves and typing
+ * updates at fixed rates, or a recorded sequence of events replayed at any speed. Generation is seeded,
+ * so a run with the same settings produces the same events.
+ */
+public class FakeTraffic {
+
+    static final long TICK_MS = 10;
+
+    private final FakeTransport transport;
+    private final FakeTransport.FakeChannel channel;
+    private final String[] users;
+    private final boolean[] present;
+    private final Random random;
+    private int messagesPerSecond;
+    private int presencePerSecond;
+    private int typingPerSecond;
+    private ScheduledFuture<?> ticker;
+    private long startedAt;
+    private long messagesSent;
+    private long presenceSent;
+    private long typingSent;
+
+    public FakeTraffic(FakeTransport transport, String channelName, int userCount, long seed) {
+        this.transport = transport;
+        this.channel = transport.channel(channelName);
+        this.users = new String[userCount];
+        this.present = new boolean[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users[i] = "sim-" + i;
+        }
+        this.random = new Random(seed);
+    }
+
+    public void setMessagesPerSecond(int messagesPerSecond) {
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    public void setPresencePerSecond(int presencePerSecond) {
+        this.presencePerSecond = presencePerSecond;
+    }
+
+    public void setTypingPerSecond(int typingPerSecond) {
+        this.typingPerSecond = typingPerSecond;
+    }
+
+    /**
+     * Puts {@code count} messages into history, {@code spacingMs} apart and ending now, without delivering them.
+     */
+    public void seedHistory(int count, long spacingMs) {
+        long first = System.currentTimeMillis() - count * spacingMs;
+        List<Message> seed = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Message message = message(users[i % users.length], "history #" + i);
+            message.timestamp = first + i * spacingMs;
+            seed.add(message);
+        }
+        channel.seedHistory(seed);
+    }
+
+    /**
+     * Starts generating at the configured rates; events are spread evenly across {@link #TICK_MS} ticks.
+     */
+    public synchronized void start() {
+        stop();
+        startedAt = System.nanoTime();
+        messagesSent = 0;
+        presenceSent = 0;
+        typingSent = 0;
+        ticker = transport.getScheduler().scheduleAtFixedRate(this::tick, 0, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+
+    /**
+     * Injects {@code events} with their original spacing divided by {@code speed}; their ids are kept
+     * and timestamps are restamped by the channel.
+     */
+    public void replay(List<? extends BaseMessage> events, double speed) {
+        if (events.isEmpty()) {
+            return;
+        }
+        long first = events.get(0).timestamp;
+        for (final BaseMessage event : events) {
+            long delayMs = (long) ((event.timestamp - first) / speed);
+            transport.getScheduler().schedule(() -> {
+                event.timestamp = 0;
+                if (event instanceof PresenceMessage) {
+                    channel.injectPresence((PresenceMessage) event);
+                } else if (event instanceof Message) {
+                    channel.inject((Message) event);
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void tick() {
+        double elapsedSeconds = (System.nanoTime() - startedAt) / 1e9;
+        for (long due = (long) (elapsedSeconds * messagesPerSecond); messagesSent < due; messagesSent++) {
+            channel.inject(message(users[random.nextInt(users.length)], "message #" + messagesSent));
+        }
+        for (long due = (long) (elapsedSeconds * presencePerSecond); presenceSent < due; presenceSent++) {
+            int user = random.nextInt(users.length);
+            present[user] = !present[user];
+            channel.injectPresence(presence(present[user] ? PresenceMessage.Action.enter : PresenceMessage.Action.leave, user, null));
+        }
+        for (long due = (long) (elapsedSeconds * typingPerSecond); typingSent < due; typingSent++) {
+            int user = random.nextInt(users.length);
+            if (present[user]) {
+                JsonObject typing = new JsonObject();
+                typing.addProperty("isTyping", random.nextBoolean());
+                channel.injectPresence(presence(PresenceMessage.Action.update, user, typing));
+            }
+        }
+    }
+
+    private static Message message(String clientId, String text) {
+        Message message = new Message(null, text);
+        message.clientId = clientId;
+        message.connectionId = "fake-" + clientId;
+        return message;
+    }
+
+    private PresenceMessage presence(PresenceMessage.Action action, int user, Object data) {
+        PresenceMessage presenceMessage = new PresenceMessage(action, users[user], data);
+        presenceMessage.connectionId = "fake-" + users[user];
+        return presenceMessage;
+    }
+}
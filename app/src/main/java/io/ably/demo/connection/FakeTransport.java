@@ -0,0 +1,535 @@
+package io.ably.demo.connection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.CompletionListener;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.realtime.Presence;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PaginatedResult;
+import io.ably.lib.types.Param;
+import io.ably.lib.types.PresenceMessage;
+
+/**
+ * An in-process realtime service for running the app and its state structures offline and
+ * reproducibly. Channels live as long as the transport and keep their history and members across
+ * reconnects, like the real service; other clients are simulated by injecting events, by hand or
+ * through {@link FakeTraffic}.
+ * <p>
+ * Everything is delivered from one scheduler thread, in order, after {@link #setLatencyMs} has passed;
+ * blocking calls (presence get, history) sleep for the same time. With {@link #setDisconnects} the
+ * connection drops periodically; live events published meanwhile are held back and delivered on
+ * reconnect, as a resumed Ably connection would.
+ */
+public class FakeTransport implements Transport {
+
+    static final int MAX_HISTORY = 100_000;
+    private static final int DEFAULT_HISTORY_LIMIT = 100;
+
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentHashMap<String, FakeChannel> channels = new ConcurrentHashMap<>();
+    private final AtomicLong connectionCounter = new AtomicLong();
+    private final List<Runnable> heldDeliveries = new ArrayList<>();
+    private volatile long latencyMs;
+    private volatile long disconnectEveryMs;
+    private volatile long disconnectForMs;
+    private volatile ConnectionState state = ConnectionState.initialized;
+    private volatile StateListener listener;
+    private volatile String clientId;
+    private volatile String connectionId;
+    private long generation;
+
+    public FakeTransport() {
+        this(Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "fake-realtime")));
+    }
+
+    FakeTransport(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Delay before every acknowledgement, delivery and state change, and added to every blocking call.
+     */
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * Drops the connection every {@code everyMs} for {@code forMs}; 0 turns disconnects off. Takes
+     * effect from the next connect.
+     */
+    public void setDisconnects(long everyMs, long forMs) {
+        this.disconnectEveryMs = everyMs;
+        this.disconnectForMs = forMs;
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public void connect(String clientId, String recoveryKey, StateListener listener) {
+        final long connection;
+        synchronized (this) {
+            connection = ++generation;
+            heldDeliveries.clear();
+        }
+        this.clientId = clientId;
+        this.listener = listener;
+        this.connectionId = recoveryKey != null ? recoveryKey : "fake-connection-" + connectionCounter.incrementAndGet();
+        setState(connection, ConnectionState.connecting);
+        scheduler.schedule(() -> setState(connection, ConnectionState.connected), latencyMs, TimeUnit.MILLISECONDS);
+        scheduleDisconnect(connection);
+    }
+
+    @Override
+    public ConnectionState getState() {
+        return state;
+    }
+
+    @Override
+    public String getRecoveryKey() {
+        return state == ConnectionState.initialized ? null : connectionId;
+    }
+
+    @Override
+    public void close() {
+        final long connection;
+        synchronized (this) {
+            connection = generation;
+        }
+        scheduler.execute(() -> {
+            setState(connection, ConnectionState.closing);
+            setState(connection, ConnectionState.closed);
+        });
+    }
+
+    /**
+     * Stops the scheduler; the transport cannot be used afterwards.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public FakeChannel channel(String name) {
+        FakeChannel channel = channels.get(name);
+        if (channel == null) {
+            channels.putIfAbsent(name, new FakeChannel(name));
+            channel = channels.get(name);
+        }
+        return channel;
+    }
+
+    /**
+     * Channels are server-side state here, so releasing one keeps its history and members.
+     */
+    @Override
+    public void release(String name) {
+    }
+
+    private void setState(long connection, ConnectionState newState) {
+        List<Runnable> released = Collections.emptyList();
+        synchronized (this) {
+            if (connection != generation) {
+                return;
+            }
+            state = newState;
+            if (newState == ConnectionState.connected && !heldDeliveries.isEmpty()) {
+                released = new ArrayList<>(heldDeliveries);
+                heldDeliveries.clear();
+            }
+        }
+        StateListener listener = this.listener;
+        if (listener != null) {
+            listener.onStateChanged(newState);
+        }
+        for (Runnable delivery : released) {
+            delivery.run();
+        }
+    }
+
+    private void scheduleDisconnect(final long connection) {
+        final long everyMs = disconnectEveryMs;
+        final long forMs = disconnectForMs;
+        if (everyMs <= 0) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            if (state != ConnectionState.connected) {
+                return;
+            }
+            setState(connection, ConnectionState.disconnected);
+            scheduler.schedule(() -> {
+                setState(connection, ConnectionState.connected);
+                scheduleDisconnect(connection);
+            }, forMs, TimeUnit.MILLISECONDS);
+        }, everyMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs {@code delivery} on the scheduler after the latency, or holds it until reconnect while the
+     * connection is down. Nothing is delivered once closed.
+     */
+    private void deliver(final Runnable delivery) {
+        scheduler.schedule(() -> {
+            synchronized (this) {
+                if (state == ConnectionState.closed || state == ConnectionState.closing || state == ConnectionState.initialized) {
+                    return;
+                }
+                if (state != ConnectionState.connected) {
+                    heldDeliveries.add(delivery);
+                    return;
+                }
+            }
+            delivery.run();
+        }, latencyMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void acknowledge(final CompletionListener listener) {
+        if (listener != null) {
+            scheduler.schedule(listener::onSuccess, latencyMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sleepLatency() {
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A channel on the fake service. Besides the client API it takes events injected on behalf of
+     * other clients.
+     */
+    public class FakeChannel implements TransportChannel {
+
+        private final String name;
+        private final CopyOnWriteArraySet<Channel.MessageListener> messageListeners = new CopyOnWriteArraySet<>();
+        private final CopyOnWriteArraySet<Presence.PresenceListener> presenceListeners = new CopyOnWriteArraySet<>();
+        private final ArrayList<Message> messages = new ArrayList<>();
+        private final ArrayList<PresenceMessage> presenceEvents = new ArrayList<>();
+        private final LinkedHashMap<String, PresenceMessage> members = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Boolean> publishedIds = new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_HISTORY;
+            }
+        };
+        private long lastTimestamp;
+        private long nextId;
+
+        FakeChannel(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Publishes a message as if another client had, stamping it with the server time.
+         */
+        public void inject(Message message) {
+            if (accept(message)) {
+                deliverMessage(message);
+            }
+        }
+
+        /**
+         * Applies a presence event as if another client had sent it.
+         */
+        public void injectPresence(PresenceMessage presenceMessage) {
+            applyPresence(presenceMessage);
+            deliverPresence(presenceMessage);
+        }
+
+        /**
+         * Adds messages to history without delivering them, e.g. to have pages to load on join.
+         */
+        public void seedHistory(List<Message> seed) {
+            for (Message message : seed) {
+                accept(message);
+            }
+        }
+
+        public int memberCount() {
+            synchronized (this) {
+                return members.size();
+            }
+        }
+
+        @Override
+        public void attach() {
+        }
+
+        @Override
+        public void detach() {
+        }
+
+        @Override
+        public void subscribe(Channel.MessageListener listener) {
+            messageListeners.add(listener);
+        }
+
+        @Override
+        public void unsubscribe(Channel.MessageListener listener) {
+            messageListeners.remove(listener);
+        }
+
+        /**
+         * Messages whose id was published before are acknowledged but not delivered again, as with
+         * Ably's idempotent publishing.
+         */
+        @Override
+        public void publish(Message[] batch, CompletionListener listener) {
+            for (Message message : batch) {
+                if (message.clientId == null) {
+                    message.clientId = clientId;
+                }
+                message.connectionId = connectionId;
+                if (accept(message)) {
+                    deliverMessage(message);
+                }
+            }
+            acknowledge(listener);
+        }
+
+        @Override
+        public PaginatedResult<Message> history(Param[] params) {
+            sleepLatency();
+            synchronized (this) {
+                return page(messages, params, new Message[0]);
+            }
+        }
+
+        @Override
+        public void subscribePresence(Presence.PresenceListener listener) {
+            presenceListeners.add(listener);
+        }
+
+        @Override
+        public void unsubscribePresence(Presence.PresenceListener listener) {
+            presenceListeners.remove(listener);
+        }
+
+        @Override
+        public void enterPresence(Object data, CompletionListener listener) {
+            injectPresence(ownPresence(PresenceMessage.Action.enter, data));
+            acknowledge(listener);
+        }
+
+        @Override
+        public void updatePresence(Object data, CompletionListener listener) {
+            injectPresence(ownPresence(PresenceMessage.Action.update, data));
+            acknowledge(listener);
+        }
+
+        @Override
+        public void leavePresence(CompletionListener listener) {
+            injectPresence(ownPresence(PresenceMessage.Action.leave, null));
+            acknowledge(listener);
+        }
+
+        @Override
+        public PresenceMessage[] getPresence() {
+            sleepLatency();
+            synchronized (this) {
+                return members.values().toArray(new PresenceMessage[0]);
+            }
+        }
+
+        @Override
+        public PaginatedResult<PresenceMessage> presenceHistory(Param[] params) {
+            sleepLatency();
+            synchronized (this) {
+                return page(presenceEvents, params, new PresenceMessage[0]);
+            }
+        }
+
+        private PresenceMessage ownPresence(PresenceMessage.Action action, Object data) {
+            PresenceMessage presenceMessage = new PresenceMessage(action, clientId, data);
+            presenceMessage.connectionId = connectionId;
+            return presenceMessage;
+        }
+
+        private synchronized boolean accept(Message message) {
+            if (message.id == null) {
+                message.id = name + ":" + nextId++;
+            } else if (publishedIds.put(message.id, Boolean.TRUE) != null) {
+                return false;
+            }
+            message.timestamp = nextTimestamp(message.timestamp);
+            messages.add(message);
+            trim(messages);
+            return true;
+        }
+
+        private synchronized void applyPresence(PresenceMessage presenceMessage) {
+            presenceMessage.timestamp = nextTimestamp(presenceMessage.timestamp);
+            if (presenceMessage.id == null) {
+                presenceMessage.id = presenceMessage.connectionId + ":" + presenceMessage.timestamp;
+            }
+            String key = presenceMessage.clientId + "\n" + presenceMessage.connectionId;
+            switch (presenceMessage.action) {
+                case enter:
+                case present:
+                case update:
+                    PresenceMessage member = new PresenceMessage(PresenceMessage.Action.present, presenceMessage.clientId, presenceMessage.data);
+                    member.connectionId = presenceMessage.connectionId;
+                    member.timestamp = presenceMessage.timestamp;
+                    members.put(key, member);
+                    break;
+                case leave:
+                case absent:
+                    members.remove(key);
+                    break;
+            }
+            if (presenceMessage.action != PresenceMessage.Action.update) {
+                presenceEvents.add(presenceMessage);
+                trim(presenceEvents);
+            }
+        }
+
+        /**
+         * Server time, kept strictly increasing per channel so history ranges are unambiguous. A
+         * timestamp given by the caller, e.g. from a replayed log, is kept if it is newer.
+         */
+        private long nextTimestamp(long requested) {
+            long timestamp = Math.max(requested > 0 ? requested : System.currentTimeMillis(), lastTimestamp + 1);
+            lastTimestamp = timestamp;
+            return timestamp;
+        }
+
+        private void deliverMessage(final Message message) {
+            deliver(() -> {
+                for (Channel.MessageListener listener : messageListeners) {
+                    listener.onMessage(message);
+                }
+            });
+        }
+
+        private void deliverPresence(final PresenceMessage presenceMessage) {
+            deliver(() -> {
+                for (Presence.PresenceListener listener : presenceListeners) {
+                    listener.onPresenceMessage(presenceMessage);
+                }
+            });
+        }
+    }
+
+    private static <T> void trim(ArrayList<T> history) {
+        if (history.size() > 2 * MAX_HISTORY) {
+            history.subList(0, history.size() - MAX_HISTORY).clear();
+        }
+    }
+
+    /**
+     * One page of {@code history}, which is in publish order, filtered and ordered by Ably's history params.
+     */
+    static <T extends io.ably.lib.types.BaseMessage> PaginatedResult<T> page(List<T> history, Param[] params, T[] type) {
+        long start = 0;
+        long end = Long.MAX_VALUE;
+        boolean backwards = true;
+        int limit = DEFAULT_HISTORY_LIMIT;
+        for (Param param : params) {
+            switch (param.key) {
+                case "start":
+                    start = Long.parseLong(param.value);
+                    break;
+                case "end":
+                    end = Long.parseLong(param.value);
+                    break;
+                case "direction":
+                    backwards = !"forwards".equals(param.value);
+                    break;
+                case "limit":
+                    limit = Integer.parseInt(param.value);
+                    break;
+            }
+        }
+        ArrayList<T> matching = new ArrayList<>();
+        for (T item : history) {
+            if (item.timestamp >= start && item.timestamp <= end) {
+                matching.add(item);
+            }
+        }
+        if (backwards) {
+            Collections.reverse(matching);
+        }
+        return new Page<>(matching, 0, limit, type);
+    }
+
+    private static class Page<T> implements PaginatedResult<T> {
+
+        private final List<T> all;
+        private final int offset;
+        private final int limit;
+        private final T[] type;
+
+        Page(List<T> all, int offset, int limit, T[] type) {
+            this.all = all;
+            this.offset = offset;
+            this.limit = limit;
+            this.type = type;
+        }
+
+        @Override
+        public T[] items() {
+            List<T> items = all.subList(offset, Math.min(all.size(), offset + limit));
+            return items.toArray(Arrays.copyOf(type, items.size()));
+        }
+
+        @Override
+        public PaginatedResult<T> first() {
+            return new Page<>(all, 0, limit, type);
+        }
+
+        @Override
+        public PaginatedResult<T> current() {
+            return this;
+        }
+
+        @Override
+        public PaginatedResult<T> next() throws AblyException {
+            return hasNext() ? new Page<>(all, offset + limit, limit, type) : null;
+        }
+
+        @Override
+        public boolean hasFirst() {
+            return true;
+        }
+
+        @Override
+        public boolean hasCurrent() {
+            return true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return offset + limit < all.size();
+        }
+
+        @Override
+        public boolean isLast() {
+            return !hasNext();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.ably.demo.connection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import io.ably.lib.types.BaseMessage;
+
+final class HistoryMerge {
+
+    private HistoryMerge() {
+    }
+
+    /**
+     * K-way merge of history pages fetched backwards (newest first) into one ascending list, in
+     * O(n * k) with no intermediate sorting. k is the number of history streams, so it stays tiny.
+     */
+    static List<BaseMessage> ascending(List<? extends List<? extends BaseMessage>> backwardsPages,
+                                       Comparator<? super BaseMessage> comparator) {
+        int total = 0;
+        int[] heads = new int[backwardsPages.size()];
+        for (int i = 0; i < heads.length; i++) {
+            heads[i] = backwardsPages.get(i).size() - 1;
+            total += backwardsPages.get(i).size();
+        }
+
+        ArrayList<BaseMessage> merged = new ArrayList<>(total);
+        while (merged.size() < total) {
+            int oldest = -1;
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] >= 0 && (oldest < 0
+                    || comparator.compare(backwardsPages.get(i).get(heads[i]), backwardsPages.get(oldest).get(heads[oldest])) < 0)) {
+                    oldest = i;
+                }
+            }
+            merged.add(backwardsPages.get(oldest).get(heads[oldest]--));
+        }
+        return merged;
+    }
+}
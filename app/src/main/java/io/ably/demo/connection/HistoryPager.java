@@ -0,0 +1,220 @@
+package io.ably.demo.connection;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.PaginatedResult;
+import io.ably.lib.types.Param;
+import timber.log.Timber;
+
+/**
+ * Walks a channel's history backwards one page at a time, keeping the Ably pagination cursor between
+ * calls. After each page is handed out the following one is prefetched, so scrolling back usually
+ * finds it ready. Each pager has at most one request in flight; the shared executor bounds the total.
+ * <p>
+ * The page size adapts to measured latency: fast round trips grow it, slow ones shrink it. When the
+ * size changes the cursor is replaced by a fresh query bounded by the oldest timestamp fetched so far.
+ */
+class HistoryPager<T extends BaseMessage> {
+
+    interface Source<T> {
+        PaginatedResult<T> history(Param[] params) throws AblyException;
+    }
+
+    interface PageCallback<T> {
+        void onPage(List<T> items, Exception ex);
+    }
+
+    static final int MIN_PAGE_SIZE = 25;
+    static final int MAX_PAGE_SIZE = 200;
+    static final int INITIAL_PAGE_SIZE = 50;
+    static final long TARGET_LATENCY_MS = 400;
+
+    private final String name;
+    private final Source<T> source;
+    private final Executor executor;
+
+    private PaginatedResult<T> cursor;
+    private int cursorPageSize;
+    private int pageSize = INITIAL_PAGE_SIZE;
+    private long boundEnd = Long.MAX_VALUE;
+    private long oldestFetched = Long.MAX_VALUE;
+    private long oldestDelivered = Long.MAX_VALUE;
+    private boolean exhausted;
+    private boolean inFlight;
+    private List<T> prefetched;
+    private PageCallback<T> waitingCallback;
+    private int generation;
+
+    HistoryPager(String name, Source<T> source, Executor executor) {
+        this.name = name;
+        this.source = source;
+        this.executor = executor;
+    }
+
+    synchronized boolean hasMore() {
+        return !exhausted || prefetched != null;
+    }
+
+    synchronized int pageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Delivers the next page older than {@code before}. If rows newer than the pager's position were
+     * dropped by the caller (e.g. evicted from the timeline), or the caller already holds rows it did
+     * not get from this pager (e.g. restored from disk), pagination restarts from {@code before}.
+     */
+    void loadOlder(long before, PageCallback<T> callback) {
+        List<T> ready = null;
+        synchronized (this) {
+            if (before > oldestDelivered || (oldestDelivered == Long.MAX_VALUE && before != Long.MAX_VALUE)) {
+                reset(before);
+            }
+            if (prefetched != null) {
+                ready = prefetched;
+                prefetched = null;
+                markDelivered(ready);
+            } else if (exhausted) {
+                ready = Collections.emptyList();
+            } else {
+                waitingCallback = callback;
+                if (!inFlight) {
+                    fetch();
+                }
+                return;
+            }
+        }
+        callback.onPage(ready, null);
+        synchronized (this) {
+            if (!inFlight && !exhausted && prefetched == null) {
+                fetch();
+            }
+        }
+    }
+
+    /**
+     * Starts over from {@code before}. A fetch already in flight keeps {@link #inFlight} set until it
+     * returns; its page is then dropped and the next fetch starts.
+     */
+    private void reset(long before) {
+        generation++;
+        cursor = null;
+        prefetched = null;
+        exhausted = false;
+        boundEnd = before;
+        oldestFetched = before;
+        oldestDelivered = before;
+    }
+
+    private void fetch() {
+        inFlight = true;
+        final int fetchGeneration = generation;
+        executor.execute(() -> {
+            List<T> items;
+            Exception error = null;
+            try {
+                items = nextPage(fetchGeneration);
+            } catch (AblyException e) {
+                Timber.e(e, "%s history page", name);
+                items = Collections.emptyList();
+                error = e;
+            }
+            onFetched(fetchGeneration, items, error);
+        });
+    }
+
+    private List<T> nextPage(int fetchGeneration) throws AblyException {
+        PaginatedResult<T> page;
+        int size;
+        boolean sameSize;
+        long end;
+        synchronized (this) {
+            page = cursor;
+            size = pageSize;
+            sameSize = size == cursorPageSize;
+            end = page == null ? boundEnd : oldestFetched;
+        }
+
+        long start = System.nanoTime();
+        if (page == null) {
+            page = source.history(params(size, end == Long.MAX_VALUE ? new Param("untilAttach", "true")
+                : new Param("end", String.valueOf(end))));
+        } else if (!page.hasNext()) {
+            return null;
+        } else if (sameSize) {
+            page = page.next();
+        } else {
+            page = source.history(params(size, new Param("end", String.valueOf(end))));
+        }
+        long latencyMs = (System.nanoTime() - start) / 1_000_000;
+
+        synchronized (this) {
+            if (fetchGeneration == generation) {
+                cursor = page;
+                cursorPageSize = size;
+                adaptPageSize(latencyMs);
+            }
+        }
+        return Arrays.asList(page.items());
+    }
+
+    private Param[] params(int size, Param bound) {
+        return new Param[] { new Param("limit", String.valueOf(size)), new Param("direction", "backwards"), bound };
+    }
+
+    private void adaptPageSize(long latencyMs) {
+        if (latencyMs < TARGET_LATENCY_MS / 2) {
+            pageSize = Math.min(MAX_PAGE_SIZE, pageSize * 2);
+        } else if (latencyMs > TARGET_LATENCY_MS) {
+            pageSize = Math.max(MIN_PAGE_SIZE, pageSize / 2);
+        }
+    }
+
+    private void onFetched(int fetchGeneration, List<T> items, Exception error) {
+        PageCallback<T> callback;
+        synchronized (this) {
+            inFlight = false;
+            if (fetchGeneration != generation) {
+                if (waitingCallback != null) {
+                    fetch();
+                }
+                return;
+            }
+            if (items == null) {
+                exhausted = true;
+                items = Collections.emptyList();
+            } else if (error == null) {
+                for (T item : items) {
+                    oldestFetched = Math.min(oldestFetched, item.timestamp);
+                }
+                exhausted = items.isEmpty() || cursor == null || !cursor.hasNext();
+            }
+
+            callback = waitingCallback;
+            waitingCallback = null;
+            if (callback == null) {
+                prefetched = error == null ? items : null;
+                return;
+            }
+            markDelivered(items);
+        }
+
+        callback.onPage(items, error);
+        synchronized (this) {
+            if (error == null && !inFlight && !exhausted && prefetched == null) {
+                fetch();
+            }
+        }
+    }
+
+    private void markDelivered(List<T> items) {
+        for (T item : items) {
+            oldestDelivered = Math.min(oldestDelivered, item.timestamp);
+        }
+    }
+}
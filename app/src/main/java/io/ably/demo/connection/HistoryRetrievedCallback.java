@@ -0,0 +1,13 @@
+package io.ably.demo.connection;
+
+import java.util.List;
+
+import io.ably.lib.types.BaseMessage;
+
+public interface HistoryRetrievedCallback {
+    /**
+     * @param items messages and presence events in ascending order
+     * @param hasMore whether older history remains on either stream
+     */
+    void onHistoryRetrieved(List<BaseMessage> items, boolean hasMore, Exception ex);
+}
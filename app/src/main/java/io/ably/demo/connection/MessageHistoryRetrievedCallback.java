@@ -1,7 +0,0 @@
-package io.ably.demo.connection;
-
-import io.ably.lib.types.Message;
-
-public interface MessageHistoryRetrievedCallback {
-    void onMessageHistoryRetrieved(Iterable<Message> messages, Exception ex);
-}
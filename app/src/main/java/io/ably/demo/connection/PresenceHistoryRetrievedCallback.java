@@ -1,7 +0,0 @@
-package io.ably.demo.connection;
-
-import io.ably.lib.types.PresenceMessage;
-
-public interface PresenceHistoryRetrievedCallback {
-    void onPresenceHistoryRetrieved(Iterable<PresenceMessage> presenceMessages);
-}
\ No newline at end of file
@@ -0,0 +1,7 @@
+package io.ably.demo.connection;
+
+import io.ably.lib.types.PresenceMessage;
+
+public interface PresenceSyncCallback {
+    void onPresenceSynced(PresenceMessage[] members, Exception ex);
+}
@@ -0,0 +1,115 @@
+package io.ably.demo.connection;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import io.ably.lib.rest.Auth;
+import timber.log.Timber;
+
+/**
+ * The last Ably token issued to this device, kept in a file in app-private storage so a cold start
+ * can connect with it instead of first going to the auth server. Excluded from backups.
+ * <p>
+ * A token is only handed out to the client it was issued for and while it has more than
+ * {@link #MIN_REMAINING_MS} to live; anything unreadable counts as no token.
+ */
+public class TokenCache {
+
+    static final long MIN_REMAINING_MS = 60_000;
+    private static final int VERSION = 1;
+
+    private final File file;
+    private Auth.TokenDetails cached;
+    private boolean loaded;
+
+    public TokenCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * A token for {@code clientId} still valid at {@code now}, or null.
+     */
+    public synchronized Auth.TokenDetails get(String clientId, long now) {
+        if (!loaded) {
+            cached = read();
+            loaded = true;
+        }
+        Auth.TokenDetails tokenDetails = cached;
+        if (tokenDetails == null || tokenDetails.expires - now < MIN_REMAINING_MS || !equal(clientId, tokenDetails.clientId)) {
+            return null;
+        }
+        return tokenDetails;
+    }
+
+    /**
+     * Replaces the cached token; written through to the file, which is swapped in by rename.
+     */
+    public synchronized void put(Auth.TokenDetails tokenDetails) {
+        if (tokenDetails == null || tokenDetails.token == null) {
+            return;
+        }
+        cached = tokenDetails;
+        loaded = true;
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(VERSION);
+            out.writeUTF(tokenDetails.token);
+            out.writeLong(tokenDetails.expires);
+            out.writeLong(tokenDetails.issued);
+            writeNullable(out, tokenDetails.capability);
+            writeNullable(out, tokenDetails.clientId);
+        } catch (IOException e) {
+            Timber.w(e, "Unable to save token");
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+
+    public synchronized void clear() {
+        cached = null;
+        loaded = true;
+        file.delete();
+    }
+
+    private Auth.TokenDetails read() {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            Auth.TokenDetails tokenDetails = new Auth.TokenDetails(in.readUTF());
+            tokenDetails.expires = in.readLong();
+            tokenDetails.issued = in.readLong();
+            tokenDetails.capability = readNullable(in);
+            tokenDetails.clientId = readNullable(in);
+            return tokenDetails;
+        } catch (IOException e) {
+            Timber.w(e, "Discarding unreadable token");
+            return null;
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,43 @@
+package io.ably.demo.connection;
+
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.types.AblyException;
+
+/**
+ * What {@link Connection} needs from a realtime service: one connection at a time and named channels on
+ * it. {@link AblyTransport} talks to Ably; {@link FakeTransport} is an in-process stand-in for offline
+ * and load testing.
+ * <p>
+ * Listeners are called on the transport's own threads.
+ */
+public interface Transport {
+
+    interface StateListener {
+        void onStateChanged(ConnectionState state);
+    }
+
+    /**
+     * Opens a new connection as {@code clientId}, replacing any previous one, resuming the session of
+     * {@code recoveryKey} if it is not null.
+     */
+    void connect(String clientId, String recoveryKey, StateListener listener) throws AblyException;
+
+    ConnectionState getState();
+
+    /**
+     * A key to resume the current session with after {@link #close()}, or null.
+     */
+    String getRecoveryKey();
+
+    void close();
+
+    /**
+     * The channel of that name on the current connection, created on first use.
+     */
+    TransportChannel channel(String name);
+
+    /**
+     * Forgets the channel; it should be detached first.
+     */
+    void release(String name);
+}
@@ -0,0 +1,43 @@
+package io.ably.demo.connection;
+
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.CompletionListener;
+import io.ably.lib.realtime.Presence;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PaginatedResult;
+import io.ably.lib.types.Param;
+import io.ably.lib.types.PresenceMessage;
+
+/**
+ * One channel of a {@link Transport}, with the subset of Ably's channel and presence API the app uses.
+ * {@link #getPresence()} and the history calls block and must not be called on a transport or UI thread.
+ */
+public interface TransportChannel {
+
+    void attach() throws AblyException;
+
+    void detach() throws AblyException;
+
+    void subscribe(Channel.MessageListener listener) throws AblyException;
+
+    void unsubscribe(Channel.MessageListener listener);
+
+    void publish(Message[] messages, CompletionListener listener) throws AblyException;
+
+    PaginatedResult<Message> history(Param[] params) throws AblyException;
+
+    void subscribePresence(Presence.PresenceListener listener) throws AblyException;
+
+    void unsubscribePresence(Presence.PresenceListener listener);
+
+    void enterPresence(Object data, CompletionListener listener) throws AblyException;
+
+    void updatePresence(Object data, CompletionListener listener) throws AblyException;
+
+    void leavePresence(CompletionListener listener) throws AblyException;
+
+    PresenceMessage[] getPresence() throws AblyException;
+
+    PaginatedResult<PresenceMessage> presenceHistory(Param[] params) throws AblyException;
+}
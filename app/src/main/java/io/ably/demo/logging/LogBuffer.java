@@ -0,0 +1,192 @@
+package io.ably.demo.logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.ably.lib.util.Log;
+import timber.log.Timber;
+
+/**
+ * Keeps the most recent log lines from the Ably library and from Timber in memory instead of writing
+ * them to logcat. Entries go into preallocated slots of a fixed-size ring and are only formatted when
+ * the buffer is dumped to a file, which happens on demand and, at most every
+ * {@link #ERROR_DUMP_INTERVAL_MS}, after an error is logged.
+ * <p>
+ * Lines below the current level are discarded before any work is done; Timber does not even format
+ * them. Priorities are the {@link Log} ones, which match Android's.
+ */
+public class LogBuffer implements Log.LogHandler {
+
+    public static final int DEFAULT_CAPACITY = 2048;
+    static final long ERROR_DUMP_INTERVAL_MS = 10_000;
+    private static final String PRIORITY_LETTERS = "??VDIWEA";
+
+    private final long[] times;
+    private final int[] priorities;
+    private final String[] tags;
+    private final String[] messages;
+    private final Throwable[] throwables;
+    private final int mask;
+    private final File dumpFile;
+    private final Executor dumpExecutor;
+    private final AtomicBoolean errorDumpScheduled = new AtomicBoolean();
+    private volatile int level;
+    private volatile long lastErrorDumpAt;
+    private long next;
+    private final Timber.Tree tree = new Timber.Tree() {
+        @Override
+        protected boolean isLoggable(String tag, int priority) {
+            return priority >= level;
+        }
+
+        @Override
+        protected void log(int priority, String tag, String message, Throwable t) {
+            record(priority, tag, message, t);
+        }
+    };
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public LogBuffer(File dumpFile, int capacity, int level) {
+        this(dumpFile, capacity, level, Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "log-dump")));
+    }
+
+    LogBuffer(File dumpFile, int capacity, int level, Executor dumpExecutor) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.times = new long[size];
+        this.priorities = new int[size];
+        this.tags = new String[size];
+        this.messages = new String[size];
+        this.throwables = new Throwable[size];
+        this.mask = size - 1;
+        this.dumpFile = dumpFile;
+        this.dumpExecutor = dumpExecutor;
+        this.level = level;
+    }
+
+    /**
+     * The tree to plant so Timber logs land here.
+     */
+    public Timber.Tree asTree() {
+        return tree;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Takes effect straight away for Timber; the Ably library has its own level, set through the Connection.
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public File getDumpFile() {
+        return dumpFile;
+    }
+
+    /**
+     * Called by the Ably library for every line at or above its level.
+     */
+    @Override
+    public void println(int severity, String tag, String msg, Throwable tr) {
+        record(severity, tag, msg, tr);
+    }
+
+    public void record(int priority, String tag, String message, Throwable t) {
+        if (priority < level) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            int slot = (int) (next++ & mask);
+            times[slot] = now;
+            priorities[slot] = priority;
+            tags[slot] = tag;
+            messages[slot] = message;
+            throwables[slot] = t;
+        }
+        if (priority >= Log.ERROR && now - lastErrorDumpAt >= ERROR_DUMP_INTERVAL_MS && errorDumpScheduled.compareAndSet(false, true)) {
+            lastErrorDumpAt = now;
+            dumpExecutor.execute(() -> {
+                errorDumpScheduled.set(false);
+                dump();
+            });
+        }
+    }
+
+    /**
+     * Writes the buffered lines to the dump file off the calling thread.
+     */
+    public void dumpAsync() {
+        dumpExecutor.execute(this::dump);
+    }
+
+    /**
+     * Writes the buffered lines, oldest first, over the dump file. Returns whether it succeeded.
+     */
+    public boolean dump() {
+        try (Writer out = new BufferedWriter(new FileWriter(dumpFile))) {
+            writeTo(out);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Formats the buffered lines, oldest first. Lines logged meanwhile may or may not be included.
+     */
+    public void writeTo(Writer writer) {
+        long end;
+        synchronized (this) {
+            end = next;
+        }
+        long start = Math.max(0, end - times.length);
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        PrintWriter out = new PrintWriter(writer);
+        Date date = new Date();
+        for (long i = start; i < end; i++) {
+            int slot = (int) (i & mask);
+            long time;
+            int priority;
+            String tag;
+            String message;
+            Throwable throwable;
+            synchronized (this) {
+                if (next - i > times.length) {
+                    continue;
+                }
+                time = times[slot];
+                priority = priorities[slot];
+                tag = tags[slot];
+                message = messages[slot];
+                throwable = throwables[slot];
+            }
+            date.setTime(time);
+            out.print(format.format(date));
+            out.print(' ');
+            out.print(priority >= 0 && priority < PRIORITY_LETTERS.length() ? PRIORITY_LETTERS.charAt(priority) : '?');
+            out.print('/');
+            out.print(tag);
+            out.print(": ");
+            out.println(message);
+            if (throwable != null) {
+                throwable.printStackTrace(out);
+            }
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,103 @@
+package io.ably.demo.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of named counters and latency histograms. Look a metric up once and keep the
+ * reference; recording on it is lock-free and allocation-free, while lookups and reports are not meant
+ * for hot paths.
+ */
+public final class Metrics {
+
+    public static final String CONNECT = "connection.connect";
+    public static final String CONNECT_CLIENT = "connection.client";
+    public static final String CONNECT_JOIN_WAIT = "connection.join_wait";
+    public static final String PUBLISH_ACK = "publish.ack";
+    public static final String PUBLISH_FAILED = "publish.failed";
+    public static final String PRESENCE_ENTER = "presence.enter";
+    public static final String PRESENCE_SYNC = "presence.sync";
+    public static final String HISTORY_OLDER = "history.older";
+    public static final String HISTORY_NEWER = "history.newer";
+    public static final String INBOUND_EVENTS = "inbound.events";
+    public static final String INBOUND_TYPING_COLLAPSED = "inbound.typing.collapsed";
+    public static final String INBOUND_TYPING_DROPPED = "inbound.typing.dropped";
+    public static final String INBOUND_DUPLICATES = "inbound.duplicates";
+    public static final String ADAPTER_INSERT = "adapter.insert";
+    public static final String ADAPTER_BIND = "adapter.bind";
+    public static final String SEARCH_QUERY = "search.query";
+
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counters.putIfAbsent(name, new Counter(name));
+            counter = counters.get(name);
+        }
+        return counter;
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histograms.putIfAbsent(name, new LatencyHistogram(name));
+            histogram = histograms.get(name);
+        }
+        return histogram;
+    }
+
+    public static List<Counter> counters() {
+        ArrayList<Counter> all = new ArrayList<>(counters.values());
+        Collections.sort(all, new Comparator<Counter>() {
+            @Override
+            public int compare(Counter a, Counter b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return all;
+    }
+
+    public static List<LatencyHistogram> histograms() {
+        ArrayList<LatencyHistogram> all = new ArrayList<>(histograms.values());
+        Collections.sort(all, new Comparator<LatencyHistogram>() {
+            @Override
+            public int compare(LatencyHistogram a, LatencyHistogram b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return all;
+    }
+
+    /**
+     * Every histogram that has recordings, then every counter, one per line.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder(512);
+        for (LatencyHistogram histogram : histograms()) {
+            if (histogram.getCount() > 0) {
+                report.append(histogram.summary()).append('\n');
+            }
+        }
+        for (Counter counter : counters()) {
+            report.append(counter.getName()).append(' ').append(counter.get()).append('\n');
+        }
+        return report.toString();
+    }
+
+    public static void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package io.ably.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+
+public class MessageSearchTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File logFile;
+    private File indexFile;
+    private final List<MessageSearch> searches = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = new File(folder.getRoot(), "search.log");
+        indexFile = new File(folder.getRoot(), "search.idx");
+    }
+
+    @After
+    public void tearDown() {
+        for (MessageSearch search : searches) {
+            search.close();
+        }
+    }
+
+    @Test
+    public void findsQueuedMessagesNewestFirst() throws Exception {
+        MessageSearch search = open();
+        search.add(Arrays.asList(message("a", 10, "alice", "Coffee?"), presence("p", 15),
+            message("b", 20, "bob", "coffee at four"), message("c", 30, "alice", "tea")));
+
+        List<BaseMessage> found = search(search, "cof", null);
+        assertEquals(2, found.size());
+        assertEquals("b", found.get(0).id);
+        assertEquals("coffee at four", found.get(0).data);
+        assertEquals("a", found.get(1).id);
+        assertEquals(1, search(search, "coffee", "alice").size());
+    }
+
+    @Test
+    public void indexesEachMessageOnce() throws Exception {
+        MessageSearch search = open();
+        search.add(Arrays.asList(message("a", 10, "alice", "hello")));
+        search.add(Arrays.asList(message("a", 10, "alice", "hello")));
+
+        assertEquals(1, search(search, "hello", null).size());
+    }
+
+    @Test
+    public void reopensFromSnapshotAndLogTail() throws Exception {
+        MessageSearch search = open();
+        List<BaseMessage> batch = new ArrayList<>();
+        for (int i = 0; i < MessageSearch.SNAPSHOT_EVERY + 10; i++) {
+            batch.add(message("m" + i, i, "user", "message number " + i));
+        }
+        search.add(batch);
+        search(search, "message", null);
+        search.close();
+        assertTrue(indexFile.exists());
+
+        MessageSearch reopened = open();
+        assertEquals(MessageSearch.SNAPSHOT_EVERY + 10, search(reopened, "message", null, Integer.MAX_VALUE).size());
+        List<BaseMessage> newest = search(reopened, "number 5009", null);
+        assertEquals(1, newest.size());
+        assertEquals("m5009", newest.get(0).id);
+    }
+
+    @Test
+    public void dropsTornTail() throws Exception {
+        MessageSearch search = open();
+        search.add(Arrays.asList(message("a", 10, "alice", "hello"), message("b", 20, "bob", "hello")));
+        search(search, "hello", null);
+        search.close();
+        long intact = logFile.length();
+        try (FileOutputStream torn = new FileOutputStream(logFile, true)) {
+            torn.write(new byte[] { 0, 0, 1, 0, 7, 7 });
+        }
+
+        MessageSearch reopened = open();
+        assertEquals(2, search(reopened, "hello", null).size());
+        assertEquals(intact, logFile.length());
+        reopened.add(Arrays.asList(message("c", 30, "carol", "hello again")));
+        assertEquals("c", search(reopened, "hello", null).get(0).id);
+    }
+
+    @Test
+    public void ignoresCallsAfterClose() throws Exception {
+        MessageSearch search = open();
+        search.close();
+        search.add(Arrays.asList(message("a", 10, "alice", "hello")));
+        final CountDownLatch called = new CountDownLatch(1);
+        search.search("hello", null, 10, messages -> called.countDown());
+
+        assertFalse(called.await(200, TimeUnit.MILLISECONDS));
+    }
+
+    private MessageSearch open() {
+        MessageSearch search = new MessageSearch(logFile, indexFile);
+        searches.add(search);
+        return search;
+    }
+
+    private static List<BaseMessage> search(MessageSearch search, String query, String sender) throws InterruptedException {
+        return search(search, query, sender, 50);
+    }
+
+    private static List<BaseMessage> search(MessageSearch search, String query, String sender, int limit)
+            throws InterruptedException {
+        final List<BaseMessage> found = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        search.search(query, sender, limit, messages -> {
+            found.addAll(messages);
+            done.countDown();
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        return found;
+    }
+
+    private static Message message(String id, long timestamp, String clientId, String text) {
+        Message message = new Message(clientId, text);
+        message.id = id;
+        message.clientId = clientId;
+        message.connectionId = "conn";
+        message.timestamp = timestamp;
+        return message;
+    }
+
+    private static PresenceMessage presence(String id, long timestamp) {
+        PresenceMessage message = new PresenceMessage(PresenceMessage.Action.enter, "client-" + id);
+        message.id = id;
+        message.connectionId = "conn";
+        message.timestamp = timestamp;
+        return message;
+    }
+}
@@ -0,0 +1,198 @@
+package io.ably.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+
+public class MessageStoreTest {
+
+    private static final int ROWS = 100_000;
+    private static final int BATCH = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private final List<MessageStore> stores = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "timeline.log");
+    }
+
+    @After
+    public void tearDown() {
+        for (MessageStore store : stores) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void restoresRowsOldestFirst() throws Exception {
+        MessageStore store = open(100);
+        store.append(Arrays.asList(message("b", 20), presence("p", 10, PresenceMessage.Action.enter), message("c", 30)));
+        store.flush();
+
+        List<BaseMessage> rows = load(open(100));
+        assertEquals(3, rows.size());
+        assertEquals("p", rows.get(0).id);
+        assertTrue(rows.get(0) instanceof PresenceMessage);
+        assertEquals(PresenceMessage.Action.enter, ((PresenceMessage) rows.get(0)).action);
+        assertEquals("b", rows.get(1).id);
+        assertEquals("text-b", rows.get(1).data);
+        assertEquals("client-b", rows.get(1).clientId);
+        assertEquals("conn", rows.get(1).connectionId);
+        assertEquals(30, rows.get(2).timestamp);
+    }
+
+    @Test
+    public void skipsRowsThatAreNotRendered() throws Exception {
+        MessageStore store = open(100);
+        store.append(Arrays.asList(message("a", 10), presence("u", 20, PresenceMessage.Action.update)));
+        store.flush();
+
+        assertEquals(1, load(store).size());
+    }
+
+    @Test
+    public void compactsToNewestDistinctRows() throws Exception {
+        MessageStore store = open(10);
+        for (int i = 0; i < 25; i++) {
+            store.append(Arrays.asList(message("m" + i, i), message("m" + i, i)));
+        }
+        store.flush();
+
+        List<BaseMessage> rows = load(store);
+        assertEquals(10, rows.size());
+        assertEquals("m15", rows.get(0).id);
+        assertEquals("m24", rows.get(9).id);
+    }
+
+    @Test
+    public void dropsTornTail() throws Exception {
+        MessageStore store = open(100);
+        store.append(Arrays.asList(message("a", 10), message("b", 20)));
+        store.flush();
+        long intact = file.length();
+        try (FileOutputStream torn = new FileOutputStream(file, true)) {
+            torn.write(new byte[] { 0, 0, 1, 0, 7, 7 });
+        }
+
+        List<BaseMessage> rows = load(open(100));
+        assertEquals(2, rows.size());
+        assertEquals(intact, file.length());
+    }
+
+    @Test
+    public void keepsNullText() throws Exception {
+        MessageStore store = open(100);
+        Message empty = message("a", 10);
+        empty.data = null;
+        store.append(Arrays.asList(empty));
+        store.flush();
+
+        assertNull(load(open(100)).get(0).data);
+    }
+
+    @Test
+    public void loadAppliesQueuedRowsFirst() throws Exception {
+        MessageStore store = open(100);
+        store.append(Arrays.asList(message("a", 10)));
+
+        assertEquals(1, load(store).size());
+    }
+
+    @Test
+    public void closeWritesQueuedRowsAndIgnoresLaterCalls() throws Exception {
+        MessageStore store = open(100);
+        store.append(Arrays.asList(message("a", 10)));
+        store.close();
+        store.append(Arrays.asList(message("b", 20)));
+        store.clear();
+        store.flush();
+        for (int i = 0; i < 100 && file.length() == 0; i++) {
+            Thread.sleep(50);
+        }
+
+        List<BaseMessage> rows = load(open(100));
+        assertEquals(1, rows.size());
+        assertEquals("a", rows.get(0).id);
+    }
+
+    @Test
+    public void writeAndReadThroughput() throws Exception {
+        MessageStore store = open(ROWS);
+        long writeStart = System.nanoTime();
+        for (int i = 0; i < ROWS; i += BATCH) {
+            List<BaseMessage> batch = new ArrayList<>(BATCH);
+            for (int j = i; j < i + BATCH; j++) {
+                batch.add(message("id-" + j, j));
+            }
+            store.append(batch);
+        }
+        store.flush();
+        long writeMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - writeStart));
+
+        long readStart = System.nanoTime();
+        List<BaseMessage> rows = load(open(ROWS));
+        long readMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - readStart));
+
+        assertEquals(ROWS, rows.size());
+        assertEquals("id-" + (ROWS - 1), rows.get(ROWS - 1).id);
+        System.out.printf("MessageStore: %d rows, %d bytes; write %d ms (%d rows/s), read %d ms (%d rows/s)%n",
+            ROWS, file.length(), writeMs, ROWS * 1000L / writeMs, readMs, ROWS * 1000L / readMs);
+    }
+
+    private MessageStore open(int maxRows) {
+        MessageStore store = new MessageStore(file, maxRows);
+        stores.add(store);
+        return store;
+    }
+
+    private static List<BaseMessage> load(MessageStore store) throws InterruptedException {
+        final List<BaseMessage> loaded = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        store.load((rows, newestTimestamp) -> {
+            loaded.addAll(rows);
+            done.countDown();
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        return loaded;
+    }
+
+    private static Message message(String id, long timestamp) {
+        Message message = new Message("client-" + id, "text-" + id);
+        message.id = id;
+        message.clientId = "client-" + id;
+        message.connectionId = "conn";
+        message.timestamp = timestamp;
+        return message;
+    }
+
+    private static PresenceMessage presence(String id, long timestamp, PresenceMessage.Action action) {
+        PresenceMessage message = new PresenceMessage(action, "client-" + id);
+        message.id = id;
+        message.connectionId = "conn";
+        message.timestamp = timestamp;
+        return message;
+    }
+}
@@ -0,0 +1,178 @@
+package io.ably.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.ably.demo.connection.ConnectionCallback;
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+
+public class OutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LinkedBlockingQueue<Publish> publishes = new LinkedBlockingQueue<>();
+    private final List<Outbox> outboxes = new ArrayList<>();
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "outbox.log");
+    }
+
+    @After
+    public void tearDown() {
+        for (Outbox outbox : outboxes) {
+            outbox.close();
+        }
+    }
+
+    @Test
+    public void holdsMessagesWhileOfflineThenPublishesInOrderedBatches() throws Exception {
+        Outbox outbox = open();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            Message message = outbox.newMessage("me", "text-" + i);
+            ids.add(message.id);
+            outbox.enqueue(message);
+        }
+        assertEquals(120, outbox.size());
+        assertNull(publishes.poll(100, TimeUnit.MILLISECONDS));
+
+        outbox.setOnline(true);
+        List<String> published = new ArrayList<>();
+        int[] expectedSizes = { 50, 50, 20 };
+        for (int expectedSize : expectedSizes) {
+            Publish publish = next();
+            assertEquals(expectedSize, publish.batch.length);
+            assertNull(publishes.poll(50, TimeUnit.MILLISECONDS));
+            for (Message message : publish.batch) {
+                published.add(message.id);
+                assertEquals(0, message.timestamp);
+            }
+            publish.callback.onConnectionCallback(null);
+        }
+        assertEquals(ids, published);
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void retriesWithTheSameIdsThenGivesUp() throws Exception {
+        Outbox outbox = open();
+        final CountDownLatch failed = new CountDownLatch(1);
+        outbox.setListener((messages, ex) -> failed.countDown());
+        Message message = outbox.newMessage("me", "hello");
+        outbox.enqueue(message);
+        outbox.setOnline(true);
+
+        for (int attempt = 0; attempt < Outbox.MAX_ATTEMPTS; attempt++) {
+            Publish publish = next();
+            assertEquals(message.id, publish.batch[0].id);
+            publish.callback.onConnectionCallback(new Exception("nope"));
+        }
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, outbox.size());
+        assertNull(publishes.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void publishesNothingAfterClose() throws Exception {
+        Outbox outbox = open();
+        outbox.enqueue(outbox.newMessage("me", "hello"));
+        outbox.setOnline(true);
+        Publish publish = next();
+
+        outbox.close();
+        publish.callback.onConnectionCallback(new Exception("nope"));
+        outbox.enqueue(outbox.newMessage("me", "again"));
+        outbox.setOnline(true);
+        assertNull(publishes.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void closeCancelsAPendingRetry() throws Exception {
+        Outbox outbox = open();
+        outbox.retryBaseMs = 200;
+        outbox.enqueue(outbox.newMessage("me", "hello"));
+        outbox.setOnline(true);
+        next().callback.onConnectionCallback(new Exception("nope"));
+        Thread.sleep(50);
+
+        outbox.close();
+        assertNull(publishes.poll(400, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void idsAreUniqueAndIdempotentForm() {
+        Outbox outbox = open();
+        String first = outbox.newMessage("me", "a").id;
+        String second = outbox.newMessage("me", "b").id;
+
+        assertTrue(first.matches("[0-9a-f]{18}:0"));
+        assertEquals(first.substring(0, 19) + "1", second);
+    }
+
+    @Test
+    public void unsentMessagesSurviveRestart() throws Exception {
+        Outbox outbox = open();
+        Message message = outbox.newMessage("me", "hello");
+        outbox.enqueue(message);
+        assertEquals(1, outbox.size());
+
+        Outbox restarted = open();
+        final List<BaseMessage> unsent = new ArrayList<>();
+        final CountDownLatch loaded = new CountDownLatch(1);
+        restarted.load((rows, newestTimestamp) -> {
+            unsent.addAll(rows);
+            loaded.countDown();
+        });
+        assertTrue(loaded.await(5, TimeUnit.SECONDS));
+        assertEquals(1, unsent.size());
+        assertEquals(message.id, unsent.get(0).id);
+        assertEquals("hello", unsent.get(0).data);
+
+        restarted.setOnline(true);
+        assertEquals(message.id, next().batch[0].id);
+    }
+
+    private Outbox open() {
+        Outbox outbox = new Outbox(file, (batch, callback) -> publishes.add(new Publish(batch, callback)),
+            Executors.newSingleThreadScheduledExecutor());
+        outbox.retryBaseMs = 1;
+        outboxes.add(outbox);
+        return outbox;
+    }
+
+    private Publish next() throws InterruptedException {
+        Publish publish = publishes.poll(5, TimeUnit.SECONDS);
+        assertNotNull(publish);
+        return publish;
+    }
+
+    private static class Publish {
+        final Message[] batch;
+        final ConnectionCallback callback;
+
+        Publish(Message[] batch, ConnectionCallback callback) {
+            this.batch = batch;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package io.ably.demo.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.ably.lib.realtime.CompletionListener;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ErrorInfo;
+
+public class ChannelManagerTest {
+
+    private final List<String> evicted = new ArrayList<>();
+    private FakeTransport transport;
+    private ChannelManager channels;
+
+    @Before
+    public void setUp() {
+        transport = new FakeTransport();
+        channels = new ChannelManager(transport, 1, Runnable::run, evicted::add);
+    }
+
+    @After
+    public void tearDown() {
+        transport.shutdown();
+    }
+
+    @Test
+    public void keepsMaxWarmChannelsBesidesTheCurrentOne() throws Exception {
+        open("a");
+        open("b");
+        assertEquals(new ArrayList<String>(), evicted);
+
+        open("c");
+        assertEquals(Arrays.asList("a"), evicted);
+        assertNull(channels.get("a"));
+    }
+
+    @Test
+    public void reopeningMakesAChannelMostRecentButLookingItUpDoesNot() throws Exception {
+        open("a");
+        open("b");
+        channels.get("a");
+        open("c");
+        assertEquals(Arrays.asList("a"), evicted);
+
+        open("b");
+        open("d");
+        assertEquals(Arrays.asList("a", "c"), evicted);
+    }
+
+    @Test
+    public void registeredChannelsAreEvictedAndAttachedOnlyWhenOpened() throws Exception {
+        channels.register("a", message -> { }, presence -> { });
+        channels.register("b", message -> { }, presence -> { });
+        assertNull(channels.get("b"));
+        assertEquals(0, channels.openChannels().size());
+
+        channels.register("c", message -> { }, presence -> { });
+        assertEquals(Arrays.asList("a"), evicted);
+
+        open("b");
+        assertNotNull(channels.get("b"));
+        assertEquals(1, channels.openChannels().size());
+        assertEquals(Arrays.asList("a"), evicted);
+    }
+
+    private void open(String name) throws AblyException {
+        channels.open(name, message -> { }, presence -> { }, new CompletionListener() {
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public void onError(ErrorInfo reason) {
+            }
+        });
+    }
+}
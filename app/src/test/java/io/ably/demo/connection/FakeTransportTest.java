@@ -0,0 +1,156 @@
+package io.ably.demo.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.ably.lib.realtime.CompletionListener;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PaginatedResult;
+import io.ably.lib.types.Param;
+import io.ably.lib.types.PresenceMessage;
+
+public class FakeTransportTest {
+
+    private final LinkedBlockingQueue<ConnectionState> states = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<Message> received = new LinkedBlockingQueue<>();
+    private FakeTransport transport;
+
+    @Before
+    public void setUp() {
+        transport = new FakeTransport();
+    }
+
+    @After
+    public void tearDown() {
+        transport.shutdown();
+    }
+
+    @Test
+    public void publishesAreAcknowledgedDeliveredOnceAndKeptInHistory() throws Exception {
+        connect();
+        FakeTransport.FakeChannel channel = transport.channel("room");
+        channel.subscribe(received::add);
+
+        Message message = new Message(null, "hello");
+        message.id = "base:0";
+        CountDownLatch acked = new CountDownLatch(2);
+        channel.publish(new Message[] { message }, ack(acked));
+        channel.publish(new Message[] { message }, ack(acked));
+
+        assertTrue(acked.await(5, TimeUnit.SECONDS));
+        Message delivered = received.poll(5, TimeUnit.SECONDS);
+        assertEquals("hello", delivered.data);
+        assertEquals("me", delivered.clientId);
+        assertTrue(delivered.timestamp > 0);
+        assertEquals(null, received.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, channel.history(new Param[0]).items().length);
+    }
+
+    @Test
+    public void historyPagesBackwardsWithinRange() throws Exception {
+        List<Message> seed = new ArrayList<>();
+        for (int i = 1; i <= 250; i++) {
+            Message message = new Message(null, "m" + i);
+            message.timestamp = i * 10;
+            seed.add(message);
+        }
+        FakeTransport.FakeChannel channel = transport.channel("room");
+        channel.seedHistory(seed);
+
+        PaginatedResult<Message> page = channel.history(new Param[] { new Param("limit", "100") });
+        assertEquals("m250", page.items()[0].data);
+        assertEquals(100, page.items().length);
+        page = page.next().next();
+        assertEquals(50, page.items().length);
+        assertFalse(page.hasNext());
+
+        Param[] forwards = { new Param("start", "2000"), new Param("direction", "forwards") };
+        Message[] newer = channel.history(forwards).items();
+        assertEquals(51, newer.length);
+        assertEquals("m200", newer[0].data);
+    }
+
+    @Test
+    public void eventsDuringADisconnectAreDeliveredOnReconnect() throws Exception {
+        transport.setDisconnects(100, 200);
+        connect();
+        FakeTransport.FakeChannel channel = transport.channel("room");
+        channel.subscribe(received::add);
+
+        assertEquals(ConnectionState.disconnected, states.poll(5, TimeUnit.SECONDS));
+        channel.inject(new Message(null, "while away"));
+        assertEquals(null, received.poll(100, TimeUnit.MILLISECONDS));
+
+        assertEquals(ConnectionState.connected, states.poll(5, TimeUnit.SECONDS));
+        assertEquals("while away", received.poll(5, TimeUnit.SECONDS).data);
+    }
+
+    @Test
+    public void presenceTracksMembersAcrossEnterAndLeave() throws Exception {
+        connect();
+        FakeTransport.FakeChannel channel = transport.channel("room");
+        channel.enterPresence(null, null);
+        PresenceMessage other = new PresenceMessage(PresenceMessage.Action.enter, "other");
+        other.connectionId = "c2";
+        channel.injectPresence(other);
+        assertEquals(2, channel.getPresence().length);
+
+        channel.leavePresence(null);
+        PresenceMessage[] members = channel.getPresence();
+        assertEquals(1, members.length);
+        assertEquals("other", members[0].clientId);
+        assertEquals(3, channel.presenceHistory(new Param[0]).items().length);
+    }
+
+    @Test
+    public void generatesTrafficAtTheConfiguredRate() throws Exception {
+        connect();
+        FakeTraffic traffic = new FakeTraffic(transport, "room", 50, 7);
+        traffic.setMessagesPerSecond(5000);
+        final LinkedBlockingQueue<PresenceMessage> presence = new LinkedBlockingQueue<>();
+        FakeTransport.FakeChannel channel = transport.channel("room");
+        channel.subscribe(received::add);
+        channel.subscribePresence(presence::add);
+        traffic.setPresencePerSecond(500);
+        traffic.start();
+        Thread.sleep(1000);
+        traffic.stop();
+        Thread.sleep(100);
+
+        System.out.printf("FakeTraffic: %d messages, %d presence events in 1 s%n", received.size(), presence.size());
+        assertTrue(received.size() > 2500);
+        assertTrue(presence.size() > 250);
+    }
+
+    private void connect() throws Exception {
+        transport.connect("me", null, states::add);
+        assertEquals(ConnectionState.connecting, states.poll(5, TimeUnit.SECONDS));
+        assertEquals(ConnectionState.connected, states.poll(5, TimeUnit.SECONDS));
+    }
+
+    private static CompletionListener ack(final CountDownLatch acked) {
+        return new CompletionListener() {
+            @Override
+            public void onSuccess() {
+                acked.countDown();
+            }
+
+            @Override
+            public void onError(ErrorInfo reason) {
+            }
+        };
+    }
+}
@@ -0,0 +1,104 @@
+package io.ably.demo.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PaginatedResult;
+import io.ably.lib.types.Param;
+
+public class HistoryPagerTest {
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final List<String> requestedEnds = new ArrayList<>();
+
+    @Test
+    public void resetWaitsForTheFetchInFlight() {
+        HistoryPager<Message> pager = new HistoryPager<>("test", this::history, tasks::add);
+        final List<List<Message>> pages = new ArrayList<>();
+
+        pager.loadOlder(Long.MAX_VALUE, (items, ex) -> pages.add(items));
+        pager.loadOlder(50, (items, ex) -> pages.add(items));
+        assertEquals(1, tasks.size());
+
+        tasks.poll().run();
+        assertTrue(pages.isEmpty());
+        assertEquals(1, tasks.size());
+
+        tasks.poll().run();
+        assertEquals(1, pages.size());
+        assertEquals(49, pages.get(0).get(0).timestamp);
+        assertEquals(2, requestedEnds.size());
+        assertEquals("50", requestedEnds.get(1));
+    }
+
+    private PaginatedResult<Message> history(Param[] params) {
+        long end = Long.MAX_VALUE;
+        for (Param param : params) {
+            if (param.key.equals("end")) {
+                end = Long.parseLong(param.value);
+                requestedEnds.add(param.value);
+            } else if (param.key.equals("untilAttach")) {
+                requestedEnds.add("untilAttach");
+            }
+        }
+        Message message = new Message("name", "text");
+        message.timestamp = end == Long.MAX_VALUE ? 1000 : end - 1;
+        return new Page(new Message[] { message });
+    }
+
+    private static final class Page implements PaginatedResult<Message> {
+
+        private final Message[] items;
+
+        Page(Message[] items) {
+            this.items = items;
+        }
+
+        @Override
+        public Message[] items() {
+            return items;
+        }
+
+        @Override
+        public PaginatedResult<Message> first() {
+            return this;
+        }
+
+        @Override
+        public PaginatedResult<Message> current() {
+            return this;
+        }
+
+        @Override
+        public PaginatedResult<Message> next() {
+            return null;
+        }
+
+        @Override
+        public boolean hasFirst() {
+            return true;
+        }
+
+        @Override
+        public boolean hasCurrent() {
+            return true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+
+        @Override
+        public boolean isLast() {
+            return true;
+        }
+    }
+}
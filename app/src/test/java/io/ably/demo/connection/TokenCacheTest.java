@@ -0,0 +1,66 @@
+package io.ably.demo.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.ably.lib.rest.Auth;
+
+public class TokenCacheTest {
+
+    private static final long NOW = 1_500_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aSavedTokenSurvivesARestart() throws Exception {
+        File file = new File(folder.getRoot(), "token");
+        new TokenCache(file).put(token("alice", NOW + 3_600_000));
+
+        Auth.TokenDetails restored = new TokenCache(file).get("alice", NOW);
+        assertEquals("token-alice", restored.token);
+        assertEquals(NOW + 3_600_000, restored.expires);
+        assertEquals(NOW, restored.issued);
+        assertEquals("alice", restored.clientId);
+        assertNull(restored.capability);
+    }
+
+    @Test
+    public void tokensCloseToExpiryOrForSomeoneElseAreNotUsed() throws Exception {
+        TokenCache cache = new TokenCache(folder.newFile());
+        cache.put(token("alice", NOW + TokenCache.MIN_REMAINING_MS + 1));
+
+        assertEquals("token-alice", cache.get("alice", NOW).token);
+        assertNull(cache.get("alice", NOW + 2));
+        assertNull(cache.get("bob", NOW));
+    }
+
+    @Test
+    public void unreadableOrClearedFilesMeanNoToken() throws Exception {
+        File file = new File(folder.getRoot(), "token");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] { 0, 0, 0, 1, 0 });
+        }
+        assertNull(new TokenCache(file).get("alice", NOW));
+
+        TokenCache cache = new TokenCache(file);
+        cache.put(token("alice", NOW + 3_600_000));
+        cache.clear();
+        assertNull(new TokenCache(file).get("alice", NOW));
+    }
+
+    private static Auth.TokenDetails token(String clientId, long expires) {
+        Auth.TokenDetails tokenDetails = new Auth.TokenDetails("token-" + clientId);
+        tokenDetails.clientId = clientId;
+        tokenDetails.issued = NOW;
+        tokenDetails.expires = expires;
+        return tokenDetails;
+    }
+}
@@ -0,0 +1,83 @@
+package io.ably.demo.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.ably.lib.util.Log;
+
+public class LogBufferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Runnable> dumps = new ArrayList<>();
+    private final Executor queuedDumps = dumps::add;
+
+    @Test
+    public void keepsOnlyTheNewestLinesInOrder() {
+        LogBuffer buffer = new LogBuffer(new File(folder.getRoot(), "dump.txt"), 4, Log.VERBOSE, queuedDumps);
+        for (int i = 0; i < 10; i++) {
+            buffer.record(Log.INFO, "tag", "line-" + i, null);
+        }
+
+        String[] lines = dump(buffer).split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].endsWith("I/tag: line-6"));
+        assertTrue(lines[3].endsWith("I/tag: line-9"));
+    }
+
+    @Test
+    public void dropsLinesBelowTheLevel() {
+        LogBuffer buffer = new LogBuffer(new File(folder.getRoot(), "dump.txt"), 16, Log.WARN, queuedDumps);
+        buffer.println(Log.VERBOSE, "ably", "frame", null);
+        buffer.record(Log.WARN, "tag", "kept", null);
+        buffer.setLevel(Log.VERBOSE);
+        buffer.println(Log.VERBOSE, "ably", "frame", null);
+
+        String dump = dump(buffer);
+        assertTrue(dump.contains("W/tag: kept"));
+        assertEquals(1, dump.split("V/ably: frame").length - 1);
+    }
+
+    @Test
+    public void anErrorDumpsToFileAtMostOncePerInterval() throws Exception {
+        File file = new File(folder.getRoot(), "dump.txt");
+        LogBuffer buffer = new LogBuffer(file, 16, Log.INFO, queuedDumps);
+        buffer.record(Log.INFO, "tag", "before", null);
+        buffer.record(Log.ERROR, "tag", "boom", new IllegalStateException("cause"));
+        buffer.record(Log.ERROR, "tag", "again", null);
+
+        assertEquals(1, dumps.size());
+        dumps.get(0).run();
+        String written = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+        assertTrue(written.contains("I/tag: before"));
+        assertTrue(written.contains("E/tag: boom"));
+        assertTrue(written.contains("IllegalStateException: cause"));
+    }
+
+    @Test
+    public void emptyBufferDumpsNothing() {
+        LogBuffer buffer = new LogBuffer(new File(folder.getRoot(), "dump.txt"), 16, Log.INFO, queuedDumps);
+
+        assertEquals("", dump(buffer));
+        assertFalse(dumps.iterator().hasNext());
+    }
+
+    private static String dump(LogBuffer buffer) {
+        StringWriter out = new StringWriter();
+        buffer.writeTo(out);
+        return out.toString();
+    }
+}
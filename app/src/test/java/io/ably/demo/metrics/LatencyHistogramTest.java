@@ -0,0 +1,76 @@
+package io.ably.demo.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguousAndBoundTheirValues() {
+        int previous = -1;
+        for (long nanos = 0; nanos < 1 << 20; nanos++) {
+            int bucket = LatencyHistogram.bucketOf(nanos);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(nanos <= LatencyHistogram.upperBoundOf(bucket));
+            previous = bucket;
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreWithinAnEighth() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertClose(TimeUnit.MILLISECONDS.toNanos(50), histogram.percentileNanos(50));
+        assertClose(TimeUnit.MILLISECONDS.toNanos(99), histogram.percentileNanos(99));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), histogram.percentileNanos(100));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), histogram.getMaxNanos());
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("empty");
+
+        assertEquals(0, histogram.percentileNanos(99));
+        assertEquals(0, histogram.getMeanNanos());
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram("concurrent");
+        final int threads = 4;
+        final int perThread = 100_000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(i);
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(threads * perThread, histogram.getCount());
+        assertEquals(perThread - 1, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void registryReturnsTheSameInstance() {
+        assertTrue(Metrics.histogram("same") == Metrics.histogram("same"));
+        assertTrue(Metrics.counter("same") == Metrics.counter("same"));
+    }
+
+    private static void assertClose(long expected, long actual) {
+        assertTrue(actual + " not within 1/8 of " + expected, Math.abs(actual - expected) <= expected / 8);
+    }
+}
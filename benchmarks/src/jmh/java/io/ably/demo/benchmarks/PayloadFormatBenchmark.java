@@ -0,0 +1,119 @@
+package io.ably.demo.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.gson.JsonObject;
+
+import io.ably.demo.Payloads;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.ChannelOptions;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolSerializer;
+
+/**
+ * JSON against MessagePack frames for a busy room's traffic, with the same mix and seed as the app's
+ * fake service: mostly chat messages, then typing updates, then enters and leaves. {@code receive}
+ * is the whole inbound path to render-ready payloads; {@code send} is framing a publish. The total
+ * frame size of each format is printed once per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PayloadFormatBenchmark {
+
+    private static final int FRAMES = 1000;
+    private static final int USERS = 200;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Param({ "json", "msgpack" })
+    public String format;
+
+    private final ChannelOptions channelOptions = new ChannelOptions();
+    private ProtocolMessage[] frames;
+    private byte[][] encoded;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void recordTraffic() throws AblyException {
+        Random random = new Random(1);
+        frames = new ProtocolMessage[FRAMES];
+        encoded = new byte[FRAMES][];
+        long timestamp = 1_500_000_000_000L;
+        long bytes = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            int kind = random.nextInt(100);
+            String clientId = "sim-" + random.nextInt(USERS);
+            ProtocolMessage frame;
+            if (kind < 80) {
+                frame = new ProtocolMessage(ProtocolMessage.Action.message, "mobile:chat");
+                Message message = new Message(null, "message #" + i + " from " + clientId + ", about " + random.nextInt(1000) + " things");
+                frame.messages = new Message[] { stamp(message, clientId, i, timestamp + i) };
+            } else {
+                frame = new ProtocolMessage(ProtocolMessage.Action.presence, "mobile:chat");
+                PresenceMessage presenceMessage;
+                if (kind < 95) {
+                    JsonObject typing = new JsonObject();
+                    typing.addProperty("isTyping", random.nextBoolean());
+                    presenceMessage = new PresenceMessage(PresenceMessage.Action.update, clientId, typing);
+                } else {
+                    presenceMessage = new PresenceMessage(kind < 98 ? PresenceMessage.Action.enter : PresenceMessage.Action.leave, clientId);
+                }
+                frame.presence = new PresenceMessage[] { stamp(presenceMessage, clientId, i, timestamp + i) };
+            }
+            frames[i] = frame;
+            encoded[i] = write(frame);
+            bytes += encoded[i].length;
+        }
+        System.out.printf("%n%s: %d frames, %d bytes (%.1f B/frame)%n", format, FRAMES, bytes, (double) bytes / FRAMES);
+    }
+
+    @Benchmark
+    public int receive() throws AblyException {
+        ProtocolMessage frame = read(encoded[next++ % FRAMES]);
+        BaseMessage[] events = frame.messages != null ? frame.messages : frame.presence;
+        int decoded = 0;
+        for (BaseMessage event : events) {
+            event.decode(channelOptions);
+            Payloads.decode(event);
+            decoded += event.data == null ? 0 : 1;
+        }
+        return decoded;
+    }
+
+    @Benchmark
+    public byte[] send() throws AblyException {
+        return write(frames[next++ % FRAMES]);
+    }
+
+    private <T extends BaseMessage> T stamp(T event, String clientId, int id, long timestamp) throws AblyException {
+        event.id = "fake-" + clientId + ":" + id + ":0";
+        event.clientId = clientId;
+        event.connectionId = "fake-" + clientId;
+        event.timestamp = timestamp;
+        event.encode(channelOptions);
+        return event;
+    }
+
+    private byte[] write(ProtocolMessage frame) throws AblyException {
+        return "json".equals(format) ? ProtocolSerializer.writeJSON(frame) : ProtocolSerializer.writeMsgpack(frame);
+    }
+
+    private ProtocolMessage read(byte[] bytes) throws AblyException {
+        return "json".equals(format) ? ProtocolSerializer.fromJSON(new String(bytes, UTF_8)) : ProtocolSerializer.readMsgpack(bytes);
+    }
+}
@@ -0,0 +1,86 @@
+package io.ably.demo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.ably.demo.MentionIndex;
+import io.ably.demo.PresenceRoster;
+import io.ably.lib.types.PresenceMessage;
+
+/**
+ * Presence bookkeeping in a room of {@code members}: one user leaving and rejoining, and a full member
+ * list applied after a resume. The mention index is attached as in the app.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PresenceRosterBenchmark {
+
+    @Param({ "10", "200", "5000" })
+    public int members;
+
+    private PresenceMessage[] present;
+    private PresenceMessage[] leaves;
+    private PresenceRoster roster;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createMembers() {
+        present = new PresenceMessage[members];
+        leaves = new PresenceMessage[members];
+        for (int i = 0; i < members; i++) {
+            present[i] = presence(PresenceMessage.Action.enter, "user-" + i);
+            leaves[i] = presence(PresenceMessage.Action.leave, "user-" + i);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void fillRoster() {
+        roster = new PresenceRoster();
+        final MentionIndex mentionIndex = new MentionIndex();
+        roster.setListener(new PresenceRoster.Listener() {
+            @Override
+            public void onMemberAdded(String clientId) {
+                mentionIndex.add(clientId);
+            }
+
+            @Override
+            public void onMemberRemoved(String clientId) {
+                mentionIndex.remove(clientId);
+            }
+        });
+        roster.beginSync();
+        roster.applySync(present);
+        next = 0;
+    }
+
+    @Benchmark
+    public int leaveAndRejoin() {
+        int member = next++ % members;
+        roster.apply(leaves[member]);
+        roster.apply(present[member]);
+        return roster.snapshot().size();
+    }
+
+    @Benchmark
+    public int resyncUnchanged() {
+        roster.beginSync();
+        roster.applySync(present);
+        return roster.size();
+    }
+
+    private static PresenceMessage presence(PresenceMessage.Action action, String clientId) {
+        PresenceMessage message = new PresenceMessage(action, clientId);
+        message.connectionId = "connection-" + clientId;
+        return message;
+    }
+}
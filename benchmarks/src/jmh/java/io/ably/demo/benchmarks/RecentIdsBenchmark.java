@@ -0,0 +1,60 @@
+package io.ably.demo.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.ably.demo.MessageKeys;
+import io.ably.demo.RecentIds;
+
+/**
+ * The de-duplication check per inbound event on a full window: a stream of new ids, each evicting the
+ * oldest, with every tenth event a replay of a recent one. Cost should not depend on {@code capacity}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecentIdsBenchmark {
+
+    private static final int STREAM = 1 << 16;
+
+    @Param({ "1024", "4096", "65536" })
+    public int capacity;
+
+    private long[] stream;
+    private RecentIds recentIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createStream() {
+        Random random = new Random(1);
+        stream = new long[STREAM];
+        for (int i = 0; i < STREAM; i++) {
+            boolean replay = i >= 100 && random.nextInt(10) == 0;
+            stream[i] = replay ? stream[i - 1 - random.nextInt(100)] : MessageKeys.hash64("fake-sim-" + i + ":" + i + ":0");
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void fillWindow() {
+        recentIds = new RecentIds(capacity);
+        for (int i = 0; recentIds.size() < capacity; i++) {
+            recentIds.add(MessageKeys.hash64("warm-" + i));
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public boolean add() {
+        return recentIds.add(stream[next++ & (STREAM - 1)]);
+    }
+}
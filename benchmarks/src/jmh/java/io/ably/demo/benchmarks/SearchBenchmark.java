@@ -0,0 +1,73 @@
+package io.ably.demo.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.ably.demo.InvertedIndex;
+import io.ably.demo.MessageKeys;
+
+/**
+ * Search-box queries against a room's history: a common word, a two-letter prefix, two words together
+ * and one word from one sender, each returning the 50 newest hits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+
+    private static final int VOCABULARY = 2000;
+    private static final int LIMIT = 50;
+
+    @Param({ "10000", "100000" })
+    public int messages;
+
+    private InvertedIndex index;
+    private String[] words;
+
+    @Setup(Level.Trial)
+    public void indexHistory() {
+        Random random = new Random(1);
+        words = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            words[i] = Long.toString(Math.abs(random.nextLong()), 36).substring(0, 3 + random.nextInt(5));
+        }
+        index = new InvertedIndex();
+        for (int i = 0; i < messages; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 8; w++) {
+                text.append(words[(int) Math.abs(random.nextGaussian() * 300) % VOCABULARY]).append(' ');
+            }
+            index.add(i, MessageKeys.hash64("fake-sim-" + i), "user-" + random.nextInt(200), text.toString(), i);
+        }
+    }
+
+    @Benchmark
+    public int[] word() {
+        return index.search(words[0], null, LIMIT);
+    }
+
+    @Benchmark
+    public int[] prefix() {
+        return index.search(words[1].substring(0, 2), null, LIMIT);
+    }
+
+    @Benchmark
+    public int[] twoWords() {
+        return index.search(words[2] + " " + words[3], null, LIMIT);
+    }
+
+    @Benchmark
+    public int[] fromSender() {
+        return index.search(words[0], "user-7", LIMIT);
+    }
+}
@@ -0,0 +1,115 @@
+package io.ably.demo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.ably.demo.CompactTimeline;
+import io.ably.demo.ItemsTimeComparator;
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+
+/**
+ * Timeline ordering as the chat screen drives it: live messages appended one at a time, a page of
+ * history merged in behind them, and a batch sorted with the comparator the history merge uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TimelineBenchmark {
+
+    private static final int HISTORY_PAGE = 100;
+
+    /**
+     * A fresh copy of the window for every merge, built outside the measured call. Kept in its own state
+     * so the per-invocation setup does not run for the other benchmarks.
+     */
+    @State(Scope.Thread)
+    public static class MergeWindow {
+        CompactTimeline window;
+
+        @Setup(Level.Invocation)
+        public void fillWindow(TimelineBenchmark benchmark) {
+            window = new CompactTimeline();
+            window.addAll(benchmark.live);
+        }
+    }
+
+    @Param({ "100", "2000" })
+    public int rows;
+
+    private List<BaseMessage> live;
+    private List<BaseMessage> historyPage;
+    private List<BaseMessage> shuffled;
+    private CompactTimeline timeline;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createMessages() {
+        live = messages(rows, HISTORY_PAGE * 10, 10);
+        historyPage = messages(HISTORY_PAGE, 0, 10);
+        Collections.reverse(historyPage);
+        shuffled = new ArrayList<>(live);
+        Collections.shuffle(shuffled, new java.util.Random(42));
+    }
+
+    @Setup(Level.Iteration)
+    public void fillTimeline() {
+        timeline = new CompactTimeline();
+        timeline.addAll(live);
+        next = 0;
+    }
+
+    /**
+     * One live message arriving at the newest end; the window is trimmed back so its size stays put.
+     */
+    @Benchmark
+    public int appendLiveMessage() {
+        int position = timeline.add(message("live-" + next, Long.MAX_VALUE / 2 + next));
+        next++;
+        timeline.trimTo(rows);
+        return position;
+    }
+
+    /**
+     * A backwards page of older history merged in front of the current window.
+     */
+    @Benchmark
+    public int mergeHistoryPage(MergeWindow merge) {
+        return merge.window.addAll(historyPage).length;
+    }
+
+    @Benchmark
+    public List<BaseMessage> sortBatch() {
+        List<BaseMessage> batch = new ArrayList<>(shuffled);
+        Collections.sort(batch, new ItemsTimeComparator());
+        return batch;
+    }
+
+    static List<BaseMessage> messages(int count, long firstTimestamp, long spacing) {
+        List<BaseMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(message("id-" + firstTimestamp + "-" + i, firstTimestamp + i * spacing));
+        }
+        return messages;
+    }
+
+    static Message message(String id, long timestamp) {
+        Message message = new Message(null, "text " + id);
+        message.id = id;
+        message.clientId = "user-" + (timestamp % 50);
+        message.timestamp = timestamp;
+        return message;
+    }
+}
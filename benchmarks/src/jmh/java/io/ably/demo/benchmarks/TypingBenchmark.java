@@ -0,0 +1,64 @@
+package io.ably.demo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.ably.demo.TypingTracker;
+
+/**
+ * Typing state per inbound update: a refresh from someone already typing, which must not rebuild the
+ * label, and a typist starting and stopping, which must.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TypingBenchmark {
+
+    @Param({ "1", "5", "50" })
+    public int typists;
+
+    private String[] clientIds;
+    private TypingTracker tracker;
+    private long now;
+
+    @Setup(Level.Trial)
+    public void createClients() {
+        clientIds = new String[typists + 1];
+        for (int i = 0; i < clientIds.length; i++) {
+            clientIds[i] = "user-" + i;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startTyping() {
+        tracker = new TypingTracker();
+        for (int i = 0; i < typists; i++) {
+            tracker.apply(clientIds[i], true, 0);
+        }
+        now = 0;
+    }
+
+    @Benchmark
+    public String refreshTypist() {
+        tracker.apply(clientIds[(int) (now++ % typists)], true, now);
+        return tracker.label();
+    }
+
+    @Benchmark
+    public int typistStartsAndStops() {
+        String newcomer = clientIds[typists];
+        tracker.apply(newcomer, true, now);
+        int length = tracker.label().length();
+        tracker.apply(newcomer, false, now);
+        return length + tracker.label().length();
+    }
+}
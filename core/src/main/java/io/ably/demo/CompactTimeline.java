@@ -0,0 +1,402 @@
+package io.ably.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+
+/**
+ * Chat rows kept in ascending (timestamp, id) order as parallel primitive columns. Only what a
+ * row renders is retained: the Ably message objects are dropped once converted.
+ * <p>
+ * Live rows are placed by binary search, with an O(1) append when the row is the newest, and
+ * sorted batches are merged in linear time.
+ */
+public class CompactTimeline {
+
+    public static final byte KIND_MESSAGE = 0;
+    public static final byte KIND_ENTER = 1;
+    public static final byte KIND_LEAVE = 2;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    public interface Listener {
+        /**
+         * @param positions ascending positions of the new rows in the updated timeline
+         */
+        void onItemsInserted(int[] positions);
+
+        void onItemsRemoved(int position, int count);
+    }
+
+    private final HashMap<String, Integer> senderIds = new HashMap<>();
+    private final ArrayList<String> senders = new ArrayList<>();
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private int[] senderColumn = new int[INITIAL_CAPACITY];
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+    private String[] texts = new String[INITIAL_CAPACITY];
+    private int size;
+    private boolean hasEvictedRows;
+    private Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long timestampAt(int position) {
+        return timestamps[position];
+    }
+
+    public long idAt(int position) {
+        return ids[position];
+    }
+
+    public String senderAt(int position) {
+        return senders.get(senderColumn[position]);
+    }
+
+    public int senderIdAt(int position) {
+        return senderColumn[position];
+    }
+
+    public byte kindAt(int position) {
+        return kinds[position];
+    }
+
+    public String textAt(int position) {
+        return texts[position];
+    }
+
+    public long oldestTimestamp() {
+        return size == 0 ? Long.MAX_VALUE : timestamps[0];
+    }
+
+    /**
+     * Whether rows older than the oldest held one were evicted and can be loaded again.
+     */
+    public boolean hasEvictedRows() {
+        return hasEvictedRows;
+    }
+
+    public void clearEvictedRows() {
+        hasEvictedRows = false;
+    }
+
+    /**
+     * Evicts the oldest rows so that at most {@code maxRows} remain, releasing spare column capacity.
+     *
+     * @return the number of rows evicted
+     */
+    public int trimTo(int maxRows) {
+        int evicted = size - Math.max(maxRows, 0);
+        if (evicted <= 0) {
+            return 0;
+        }
+        size -= evicted;
+        System.arraycopy(timestamps, evicted, timestamps, 0, size);
+        System.arraycopy(ids, evicted, ids, 0, size);
+        System.arraycopy(senderColumn, evicted, senderColumn, 0, size);
+        System.arraycopy(kinds, evicted, kinds, 0, size);
+        System.arraycopy(texts, evicted, texts, 0, size);
+        Arrays.fill(texts, size, size + evicted, null);
+        if (timestamps.length > INITIAL_CAPACITY && timestamps.length > size * 2) {
+            resize(Math.max(INITIAL_CAPACITY, size + (size >> 1)));
+        }
+        hasEvictedRows = true;
+        if (listener != null) {
+            listener.onItemsRemoved(0, evicted);
+        }
+        return evicted;
+    }
+
+    /**
+     * @return the position the message landed at, or -1 if it is not a renderable row or already held
+     */
+    public int add(BaseMessage message) {
+        byte kind = kindOf(message);
+        if (kind < 0) {
+            return -1;
+        }
+        int position = add(message.timestamp, MessageKeys.stableIdOf(message), message.clientId, kind, textOf(message));
+        if (position >= 0) {
+            dispatch(new int[] { position });
+        }
+        return position;
+    }
+
+    /**
+     * Removes the row with this key, e.g. a locally shown message being replaced by the server's copy.
+     *
+     * @return the position the row was at, or -1 if it is not held
+     */
+    public int remove(long timestamp, long id) {
+        int position = insertionPoint(timestamp, id) - 1;
+        if (position < 0 || compare(position, timestamp, id) != 0) {
+            return -1;
+        }
+        int tail = size - position - 1;
+        System.arraycopy(timestamps, position + 1, timestamps, position, tail);
+        System.arraycopy(ids, position + 1, ids, position, tail);
+        System.arraycopy(senderColumn, position + 1, senderColumn, position, tail);
+        System.arraycopy(kinds, position + 1, kinds, position, tail);
+        System.arraycopy(texts, position + 1, texts, position, tail);
+        texts[--size] = null;
+        if (listener != null) {
+            listener.onItemsRemoved(position, 1);
+        }
+        return position;
+    }
+
+    /**
+     * Merges a batch into the timeline. Ascending or descending (e.g. history fetched backwards)
+     * batches are merged in O(n + m); anything else is sorted first. Non-renderable messages, rows
+     * already held and repeats within the batch are skipped.
+     */
+    public int[] addAll(List<? extends BaseMessage> batch) {
+        List<? extends BaseMessage> sorted = ascending(batch);
+        CompactTimeline incoming = new CompactTimeline();
+        for (BaseMessage message : sorted) {
+            byte kind = kindOf(message);
+            if (kind < 0) {
+                continue;
+            }
+            long id = MessageKeys.stableIdOf(message);
+            int last = incoming.size - 1;
+            if (last >= 0 && incoming.compare(last, message.timestamp, id) == 0) {
+                continue;
+            }
+            incoming.append(message.timestamp, id, message.clientId, kind, textOf(message));
+        }
+        int[] positions = merge(incoming);
+        dispatch(positions);
+        return positions;
+    }
+
+    int add(long timestamp, long id, String sender, byte kind, String text) {
+        int position = insertionPoint(timestamp, id);
+        if (position > 0 && compare(position - 1, timestamp, id) == 0) {
+            return -1;
+        }
+        ensureCapacity(size + 1);
+        int tail = size - position;
+        if (tail > 0) {
+            System.arraycopy(timestamps, position, timestamps, position + 1, tail);
+            System.arraycopy(ids, position, ids, position + 1, tail);
+            System.arraycopy(senderColumn, position, senderColumn, position + 1, tail);
+            System.arraycopy(kinds, position, kinds, position + 1, tail);
+            System.arraycopy(texts, position, texts, position + 1, tail);
+        }
+        set(position, timestamp, id, intern(sender), kind, text);
+        size++;
+        return position;
+    }
+
+    void append(long timestamp, long id, String sender, byte kind, String text) {
+        ensureCapacity(size + 1);
+        set(size++, timestamp, id, intern(sender), kind, text);
+    }
+
+    /**
+     * Linear merge of an ascending timeline into this one. Rows whose key is already held are dropped.
+     *
+     * @return positions of the merged rows in the updated timeline
+     */
+    int[] merge(CompactTimeline other) {
+        if (other.size == 0) {
+            return new int[0];
+        }
+
+        if (size == 0 || compare(size - 1, other.timestamps[0], other.ids[0]) < 0) {
+            int[] positions = new int[other.size];
+            int start = size;
+            ensureCapacity(size + other.size);
+            for (int i = 0; i < other.size; i++) {
+                set(size++, other.timestamps[i], other.ids[i], intern(other.senderAt(i)), other.kinds[i], other.texts[i]);
+                positions[i] = start + i;
+            }
+            return positions;
+        }
+
+        int[] positions = new int[other.size];
+        int inserted = 0;
+        int capacity = capacityFor(size + other.size);
+        long[] mergedTimestamps = new long[capacity];
+        long[] mergedIds = new long[capacity];
+        int[] mergedSenders = new int[capacity];
+        byte[] mergedKinds = new byte[capacity];
+        String[] mergedTexts = new String[capacity];
+
+        int left = 0;
+        int right = 0;
+        int out = 0;
+        while (left < size || right < other.size) {
+            int order = left == size ? 1 : right == other.size ? -1 : compare(left, other.timestamps[right], other.ids[right]);
+            if (order == 0) {
+                right++;
+                continue;
+            }
+            if (order > 0) {
+                mergedTimestamps[out] = other.timestamps[right];
+                mergedIds[out] = other.ids[right];
+                mergedSenders[out] = intern(other.senderAt(right));
+                mergedKinds[out] = other.kinds[right];
+                mergedTexts[out] = other.texts[right];
+                positions[inserted++] = out;
+                right++;
+            } else {
+                mergedTimestamps[out] = timestamps[left];
+                mergedIds[out] = ids[left];
+                mergedSenders[out] = senderColumn[left];
+                mergedKinds[out] = kinds[left];
+                mergedTexts[out] = texts[left];
+                left++;
+            }
+            out++;
+        }
+
+        timestamps = mergedTimestamps;
+        ids = mergedIds;
+        senderColumn = mergedSenders;
+        kinds = mergedKinds;
+        texts = mergedTexts;
+        size = out;
+        return inserted == positions.length ? positions : Arrays.copyOf(positions, inserted);
+    }
+
+    /**
+     * Position after every row that sorts at or before (timestamp, id), so equal keys keep arrival order.
+     */
+    int insertionPoint(long timestamp, long id) {
+        if (size == 0 || compare(size - 1, timestamp, id) <= 0) {
+            return size;
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, timestamp, id) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Bytes held by the row columns and the sender table, excluding the text strings themselves.
+     */
+    public long columnBytes() {
+        long perSlot = 8 + 8 + 4 + 1 + 4;
+        long senderTable = senders.size() * 16L;
+        return timestamps.length * perSlot + senderTable;
+    }
+
+    private int compare(int position, long timestamp, long id) {
+        int byTime = Long.compare(timestamps[position], timestamp);
+        return byTime != 0 ? byTime : Long.compare(ids[position], id);
+    }
+
+    private void set(int position, long timestamp, long id, int senderId, byte kind, String text) {
+        timestamps[position] = timestamp;
+        ids[position] = id;
+        senderColumn[position] = senderId;
+        kinds[position] = kind;
+        texts[position] = text;
+    }
+
+    private int intern(String sender) {
+        Integer id = senderIds.get(sender);
+        if (id == null) {
+            id = senders.size();
+            senders.add(sender);
+            senderIds.put(sender, id);
+        }
+        return id;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= timestamps.length) {
+            return;
+        }
+        resize(capacityFor(required));
+    }
+
+    private void resize(int capacity) {
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        senderColumn = Arrays.copyOf(senderColumn, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        texts = Arrays.copyOf(texts, capacity);
+    }
+
+    private int capacityFor(int required) {
+        int capacity = Math.max(timestamps.length, INITIAL_CAPACITY);
+        while (capacity < required) {
+            capacity += capacity >> 1;
+        }
+        return capacity;
+    }
+
+    private void dispatch(int[] positions) {
+        if (listener != null && positions.length > 0) {
+            listener.onItemsInserted(positions);
+        }
+    }
+
+    private static List<? extends BaseMessage> ascending(List<? extends BaseMessage> batch) {
+        ItemsTimeComparator comparator = new ItemsTimeComparator();
+        boolean isAscending = true;
+        boolean isDescending = true;
+        for (int i = 1; i < batch.size() && (isAscending || isDescending); i++) {
+            int order = comparator.compare(batch.get(i - 1), batch.get(i));
+            isAscending &= order <= 0;
+            isDescending &= order >= 0;
+        }
+        if (isAscending) {
+            return batch;
+        }
+        ArrayList<BaseMessage> copy = new ArrayList<>(batch);
+        if (isDescending) {
+            Collections.reverse(copy);
+        } else {
+            Collections.sort(copy, comparator);
+        }
+        return copy;
+    }
+
+    /**
+     * The row kind a message is stored as, or -1 for messages the timeline does not show.
+     */
+    public static byte kindOf(BaseMessage message) {
+        if (message instanceof Message) {
+            return KIND_MESSAGE;
+        }
+        if (message instanceof PresenceMessage) {
+            switch (((PresenceMessage) message).action) {
+                case enter:
+                    return KIND_ENTER;
+                case leave:
+                    return KIND_LEAVE;
+                default:
+                    return -1;
+            }
+        }
+        return -1;
+    }
+
+    public static String textOf(BaseMessage message) {
+        return Payloads.textOf(message);
+    }
+}
@@ -0,0 +1,362 @@
+package io.ably.demo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Full-text index over chat messages: each document is a message's timestamp, id, sender and an opaque
+ * {@code ref} for finding its text elsewhere (the text itself is not kept). Terms map to ascending
+ * document numbers; the term dictionary is sorted, so every query word matches as a prefix.
+ * <p>
+ * A query matches documents containing all of its words, optionally from one sender, and returns the
+ * newest first. Documents are only ever added, in any timestamp order; a repeated id is ignored.
+ * Not thread-safe.
+ */
+public class InvertedIndex {
+
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final HashMap<String, Integer> senderIds = new HashMap<>();
+    private final ArrayList<String> senders = new ArrayList<>();
+    private final LongSet docIds = new LongSet();
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private long[] refs = new long[INITIAL_CAPACITY];
+    private int[] senderColumn = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Lower-cased runs of letters and digits; a mention's {@code @} and all punctuation separate words.
+     */
+    public static ArrayList<String> tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long id) {
+        return docIds.contains(id);
+    }
+
+    /**
+     * @return the new document's number, or -1 if a document with this id is already indexed
+     */
+    public int add(long timestamp, long id, String sender, String text, long ref) {
+        if (!docIds.add(id)) {
+            return -1;
+        }
+        int doc = size;
+        ensureCapacity(size + 1);
+        timestamps[doc] = timestamp;
+        ids[doc] = id;
+        refs[doc] = ref;
+        senderColumn[doc] = intern(sender);
+        size++;
+        for (String token : tokenize(text)) {
+            Postings postings = terms.get(token);
+            if (postings == null) {
+                postings = new Postings();
+                terms.put(token, postings);
+            }
+            postings.add(doc);
+        }
+        return doc;
+    }
+
+    public long timestampAt(int doc) {
+        return timestamps[doc];
+    }
+
+    public long idAt(int doc) {
+        return ids[doc];
+    }
+
+    public long refAt(int doc) {
+        return refs[doc];
+    }
+
+    public String senderAt(int doc) {
+        return senders.get(senderColumn[doc]);
+    }
+
+    /**
+     * Documents matching every word of {@code query} as a prefix and, if {@code sender} is not null,
+     * sent by them; at most {@code limit}, newest first. A query without words matches everything from
+     * {@code sender}, or nothing without one.
+     */
+    public int[] search(String query, String sender, int limit) {
+        ArrayList<String> words = tokenize(query);
+        int senderId = -1;
+        if (sender != null) {
+            Integer id = senderIds.get(sender);
+            if (id == null) {
+                return new int[0];
+            }
+            senderId = id;
+        }
+        if (limit <= 0 || (words.isEmpty() && senderId < 0)) {
+            return new int[0];
+        }
+
+        BitSet matches = null;
+        for (String word : words) {
+            BitSet wordMatches = new BitSet(size);
+            for (Postings postings : withPrefix(word).values()) {
+                postings.addTo(wordMatches);
+            }
+            if (matches == null) {
+                matches = wordMatches;
+            } else {
+                matches.and(wordMatches);
+            }
+            if (matches.isEmpty()) {
+                return new int[0];
+            }
+        }
+        if (matches == null) {
+            matches = new BitSet(size);
+            matches.set(0, size);
+        }
+
+        PriorityQueue<Integer> newest = new PriorityQueue<>(Math.min(limit, size) + 1, this::compareAge);
+        for (int doc = matches.nextSetBit(0); doc >= 0; doc = matches.nextSetBit(doc + 1)) {
+            if (senderId >= 0 && senderColumn[doc] != senderId) {
+                continue;
+            }
+            newest.add(doc);
+            if (newest.size() > limit) {
+                newest.poll();
+            }
+        }
+        int[] result = new int[newest.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = newest.poll();
+        }
+        return result;
+    }
+
+    /**
+     * Writes the whole index; postings are delta-encoded varints.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeInt(senders.size());
+        for (String sender : senders) {
+            out.writeUTF(sender);
+        }
+        out.writeInt(size);
+        for (int doc = 0; doc < size; doc++) {
+            out.writeLong(timestamps[doc]);
+            out.writeLong(ids[doc]);
+            out.writeLong(refs[doc]);
+            writeVarint(out, senderColumn[doc]);
+        }
+        out.writeInt(terms.size());
+        for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().writeTo(out);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo}.
+     *
+     * @throws IOException also if it was written by an incompatible version
+     */
+    public static InvertedIndex readFrom(DataInput in) throws IOException {
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unsupported index version");
+        }
+        InvertedIndex index = new InvertedIndex();
+        int senderCount = in.readInt();
+        for (int i = 0; i < senderCount; i++) {
+            index.intern(in.readUTF());
+        }
+        int size = in.readInt();
+        index.ensureCapacity(size);
+        for (int doc = 0; doc < size; doc++) {
+            index.timestamps[doc] = in.readLong();
+            index.ids[doc] = in.readLong();
+            index.refs[doc] = in.readLong();
+            index.senderColumn[doc] = readVarint(in);
+            index.docIds.add(index.ids[doc]);
+        }
+        index.size = size;
+        int termCount = in.readInt();
+        for (int i = 0; i < termCount; i++) {
+            String term = in.readUTF();
+            index.terms.put(term, Postings.readFrom(in));
+        }
+        return index;
+    }
+
+    private SortedMap<String, Postings> withPrefix(String prefix) {
+        return terms.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    private int compareAge(int a, int b) {
+        if (timestamps[a] != timestamps[b]) {
+            return timestamps[a] < timestamps[b] ? -1 : 1;
+        }
+        return Integer.compare(a, b);
+    }
+
+    private int intern(String sender) {
+        String key = sender == null ? "" : sender;
+        Integer id = senderIds.get(key);
+        if (id == null) {
+            id = senders.size();
+            senders.add(key);
+            senderIds.put(key, id);
+        }
+        return id;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= timestamps.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, timestamps.length * 2);
+        timestamps = Arrays.copyOf(timestamps, newCapacity);
+        ids = Arrays.copyOf(ids, newCapacity);
+        refs = Arrays.copyOf(refs, newCapacity);
+        senderColumn = Arrays.copyOf(senderColumn, newCapacity);
+    }
+
+    private static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Ascending document numbers for one term.
+     */
+    private static final class Postings {
+
+        private int[] docs = new int[2];
+        private int count;
+
+        void add(int doc) {
+            if (count > 0 && docs[count - 1] == doc) {
+                return;
+            }
+            if (count == docs.length) {
+                docs = Arrays.copyOf(docs, count * 2);
+            }
+            docs[count++] = doc;
+        }
+
+        void addTo(BitSet bits) {
+            for (int i = 0; i < count; i++) {
+                bits.set(docs[i]);
+            }
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            writeVarint(out, count);
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                writeVarint(out, docs[i] - previous);
+                previous = docs[i];
+            }
+        }
+
+        static Postings readFrom(DataInput in) throws IOException {
+            Postings postings = new Postings();
+            postings.count = readVarint(in);
+            postings.docs = new int[Math.max(2, postings.count)];
+            int previous = 0;
+            for (int i = 0; i < postings.count; i++) {
+                previous += readVarint(in);
+                postings.docs[i] = previous;
+            }
+            return postings;
+        }
+    }
+
+    /**
+     * Every indexed id, in an open-addressing table that doubles when half full. Id 0 is stored as 1.
+     */
+    private static final class LongSet {
+
+        private long[] table = new long[INITIAL_CAPACITY];
+        private int size;
+
+        boolean contains(long id) {
+            long key = id == 0 ? 1 : id;
+            return table[slotOf(table, key)] == key;
+        }
+
+        boolean add(long id) {
+            long key = id == 0 ? 1 : id;
+            int slot = slotOf(table, key);
+            if (table[slot] == key) {
+                return false;
+            }
+            table[slot] = key;
+            if (++size * 2 > table.length) {
+                long[] old = table;
+                table = new long[old.length * 2];
+                for (long entry : old) {
+                    if (entry != 0) {
+                        table[slotOf(table, entry)] = entry;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private static int slotOf(long[] table, long key) {
+            int mask = table.length - 1;
+            int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (table[slot] != 0 && table[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
@@ -6,6 +6,10 @@ import io.ably.lib.types.BaseMessage;
 
 public class ItemsTimeComparator implements Comparator<BaseMessage> {
     public int compare(BaseMessage left, BaseMessage right) {
-        return (int) (left.timestamp - right.timestamp);
+        int byTime = Long.compare(left.timestamp, right.timestamp);
+        if (byTime != 0) {
+            return byTime;
+        }
+        return Long.compare(MessageKeys.stableIdOf(left), MessageKeys.stableIdOf(right));
     }
 }
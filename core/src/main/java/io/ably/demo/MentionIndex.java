@@ -0,0 +1,121 @@
+package io.ably.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Present handles sorted by their lower-cased form, so every handle starting with a prefix sits in one
+ * contiguous run found by binary search. Enter and leave update the arrays in place; queries run
+ * against an immutable {@link Snapshot} that is only copied when the index changed since the last one.
+ * Not thread safe; mutate and snapshot on the main thread, query the snapshot anywhere.
+ */
+public class MentionIndex {
+
+    private String[] keys = new String[16];
+    private String[] handles = new String[16];
+    private int size;
+    private Snapshot snapshot = new Snapshot(new String[0], new String[0]);
+    private boolean dirty;
+
+    public int size() {
+        return size;
+    }
+
+    public void add(String handle) {
+        String key = keyOf(handle);
+        int position = search(keys, handles, size, key, handle);
+        if (position >= 0) {
+            return;
+        }
+        position = -position - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size + (size >> 1));
+            handles = Arrays.copyOf(handles, keys.length);
+        }
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        System.arraycopy(handles, position, handles, position + 1, size - position);
+        keys[position] = key;
+        handles[position] = handle;
+        size++;
+        dirty = true;
+    }
+
+    public void remove(String handle) {
+        int position = search(keys, handles, size, keyOf(handle), handle);
+        if (position < 0) {
+            return;
+        }
+        System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+        System.arraycopy(handles, position + 1, handles, position, size - position - 1);
+        size--;
+        keys[size] = null;
+        handles[size] = null;
+        dirty = true;
+    }
+
+    public Snapshot snapshot() {
+        if (dirty) {
+            snapshot = new Snapshot(Arrays.copyOf(keys, size), Arrays.copyOf(handles, size));
+            dirty = false;
+        }
+        return snapshot;
+    }
+
+    public static final class Snapshot {
+        private final String[] keys;
+        private final String[] handles;
+
+        Snapshot(String[] keys, String[] handles) {
+            this.keys = keys;
+            this.handles = handles;
+        }
+
+        /**
+         * Up to {@code limit} handles starting with {@code prefix}, case-insensitively, in alphabetical
+         * order. O(log n + limit).
+         */
+        public List<String> query(String prefix, int limit) {
+            String key = keyOf(prefix);
+            int position = search(keys, handles, keys.length, key, "");
+            position = position < 0 ? -position - 1 : position;
+            if (position == keys.length || !keys[position].startsWith(key)) {
+                return Collections.emptyList();
+            }
+            ArrayList<String> matches = new ArrayList<>(limit);
+            for (int i = position; i < keys.length && matches.size() < limit && keys[i].startsWith(key); i++) {
+                matches.add(handles[i]);
+            }
+            return matches;
+        }
+    }
+
+    /**
+     * Binary search on (key, handle); returns the index if found, otherwise {@code -(insertionPoint + 1)}.
+     */
+    private static int search(String[] keys, String[] handles, int size, String key, String handle) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int order = keys[mid].compareTo(key);
+            if (order == 0) {
+                order = handles[mid].compareTo(handle);
+            }
+            if (order < 0) {
+                low = mid + 1;
+            } else if (order > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static String keyOf(String handle) {
+        return handle.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,38 @@
+package io.ably.demo;
+
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.PresenceMessage;
+
+public final class MessageKeys {
+
+    private MessageKeys() {
+    }
+
+    /**
+     * Identity of a row. Ably ids are unique per channel; rows without one (e.g. locally
+     * synthesised presence) fall back to connection, time and action.
+     */
+    public static String keyOf(BaseMessage message) {
+        if (message.id != null) {
+            return message.id;
+        }
+        String kind = message instanceof PresenceMessage ? String.valueOf(((PresenceMessage) message).action) : "message";
+        return message.connectionId + ":" + message.clientId + ":" + message.timestamp + ":" + kind;
+    }
+
+    /**
+     * 64-bit FNV-1a over the row key, so ids stay stable across updates without keeping a lookup table.
+     */
+    public static long stableIdOf(BaseMessage message) {
+        return hash64(keyOf(message));
+    }
+
+    public static long hash64(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,67 @@
+package io.ably.demo;
+
+import java.nio.charset.Charset;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+
+/**
+ * Turns event payloads into the form the UI uses, once, as they arrive: chat text becomes a String
+ * and a typing update's {@code {"isTyping": ...}} becomes a Boolean. The decoded value replaces
+ * {@code data}, so everything downstream reads it without parsing again.
+ * <p>
+ * Decoding is idempotent; the accessors also accept payloads that were never decoded, such as history pages.
+ */
+public final class Payloads {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Payloads() {
+    }
+
+    public static void decode(BaseMessage message) {
+        if (message instanceof PresenceMessage) {
+            if (((PresenceMessage) message).action == PresenceMessage.Action.update) {
+                message.data = typingOf(message.data);
+            }
+        } else if (message instanceof Message) {
+            message.data = textOf(message.data);
+        }
+    }
+
+    public static String textOf(BaseMessage message) {
+        return message instanceof Message ? textOf(message.data) : null;
+    }
+
+    public static boolean isTyping(PresenceMessage presenceMessage) {
+        return typingOf(presenceMessage.data);
+    }
+
+    private static String textOf(Object data) {
+        if (data == null || data instanceof String) {
+            return (String) data;
+        }
+        if (data instanceof byte[]) {
+            return new String((byte[]) data, UTF_8);
+        }
+        if (data instanceof JsonElement && ((JsonElement) data).isJsonPrimitive()) {
+            return ((JsonElement) data).getAsString();
+        }
+        return data.toString();
+    }
+
+    private static Boolean typingOf(Object data) {
+        if (data instanceof Boolean) {
+            return (Boolean) data;
+        }
+        if (data instanceof JsonObject) {
+            JsonElement isTyping = ((JsonObject) data).get("isTyping");
+            return isTyping != null && isTyping.isJsonPrimitive() && isTyping.getAsBoolean();
+        }
+        return Boolean.FALSE;
+    }
+}
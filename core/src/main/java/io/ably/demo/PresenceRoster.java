@@ -0,0 +1,170 @@
+package io.ably.demo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import io.ably.lib.types.PresenceMessage;
+
+/**
+ * Members present on the channel, keyed by (clientId, connectionId) so a user connected from several
+ * devices stays present until their last connection leaves. Enter, leave and lookup are O(1); the
+ * sorted handle list is maintained incrementally and snapshotted at most once per change.
+ * <p>
+ * The initial member list is applied with {@link #beginSync()} / {@link #applySync}: deltas that
+ * arrive while the snapshot is being fetched take precedence over it, so nothing is rebuilt.
+ * Not thread safe; owned by the main thread.
+ */
+public class PresenceRoster {
+
+    public interface Listener {
+        void onMemberAdded(String clientId);
+
+        void onMemberRemoved(String clientId);
+    }
+
+    private final HashMap<String, HashSet<String>> connectionsByClient = new HashMap<>();
+    private final TreeSet<String> sortedClients = new TreeSet<>();
+    private HashSet<String> touchedDuringSync;
+    private List<String> snapshot;
+    private Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return connectionsByClient.size();
+    }
+
+    public boolean contains(String clientId) {
+        return connectionsByClient.containsKey(clientId);
+    }
+
+    /**
+     * Present handles in ascending order. The list is immutable and shared until the next change.
+     */
+    public List<String> snapshot() {
+        if (snapshot == null) {
+            snapshot = Collections.unmodifiableList(new ArrayList<>(sortedClients));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Applies a live presence event. Returns whether the set of present clients changed.
+     */
+    public boolean apply(PresenceMessage message) {
+        switch (message.action) {
+            case enter:
+            case present:
+            case update:
+                markTouched(message);
+                return enter(message.clientId, message.connectionId);
+            case leave:
+            case absent:
+                markTouched(message);
+                return leave(message.clientId, message.connectionId);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Forgets every member, e.g. when switching to another channel.
+     */
+    public void clear() {
+        for (String clientId : new ArrayList<>(sortedClients)) {
+            connectionsByClient.remove(clientId);
+            sortedClients.remove(clientId);
+            if (listener != null) {
+                listener.onMemberRemoved(clientId);
+            }
+        }
+        snapshot = null;
+        touchedDuringSync = null;
+    }
+
+    public void beginSync() {
+        touchedDuringSync = new HashSet<>();
+    }
+
+    /**
+     * Merges the member list fetched after {@link #beginSync()}, skipping any member whose state
+     * changed in the meantime. Connections held here but missing from the list left while no events
+     * were being received (e.g. during a resume) and are removed.
+     */
+    public void applySync(PresenceMessage[] members) {
+        HashSet<String> listed = new HashSet<>(members.length * 2);
+        for (PresenceMessage member : members) {
+            String key = keyOf(member);
+            listed.add(key);
+            if (touchedDuringSync == null || !touchedDuringSync.contains(key)) {
+                enter(member.clientId, member.connectionId);
+            }
+        }
+
+        ArrayList<String[]> departed = new ArrayList<>();
+        for (Map.Entry<String, HashSet<String>> entry : connectionsByClient.entrySet()) {
+            for (String connectionId : entry.getValue()) {
+                String key = keyOf(entry.getKey(), connectionId);
+                if (!listed.contains(key) && (touchedDuringSync == null || !touchedDuringSync.contains(key))) {
+                    departed.add(new String[] { entry.getKey(), connectionId });
+                }
+            }
+        }
+        for (String[] member : departed) {
+            leave(member[0], member[1]);
+        }
+        touchedDuringSync = null;
+    }
+
+    private boolean enter(String clientId, String connectionId) {
+        HashSet<String> connections = connectionsByClient.get(clientId);
+        if (connections == null) {
+            connections = new HashSet<>(2);
+            connectionsByClient.put(clientId, connections);
+            connections.add(connectionId);
+            sortedClients.add(clientId);
+            snapshot = null;
+            if (listener != null) {
+                listener.onMemberAdded(clientId);
+            }
+            return true;
+        }
+        connections.add(connectionId);
+        return false;
+    }
+
+    private boolean leave(String clientId, String connectionId) {
+        HashSet<String> connections = connectionsByClient.get(clientId);
+        if (connections == null || !connections.remove(connectionId) || !connections.isEmpty()) {
+            return false;
+        }
+        connectionsByClient.remove(clientId);
+        sortedClients.remove(clientId);
+        snapshot = null;
+        if (listener != null) {
+            listener.onMemberRemoved(clientId);
+        }
+        return true;
+    }
+
+    private void markTouched(PresenceMessage message) {
+        if (touchedDuringSync != null) {
+            touchedDuringSync.add(keyOf(message));
+        }
+    }
+
+    private static String keyOf(PresenceMessage message) {
+        return keyOf(message.clientId, message.connectionId);
+    }
+
+    private static String keyOf(String clientId, String connectionId) {
+        return clientId + '\u0000' + connectionId;
+    }
+}
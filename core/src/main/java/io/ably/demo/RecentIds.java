@@ -0,0 +1,112 @@
+package io.ably.demo;
+
+import java.util.Arrays;
+
+/**
+ * The last {@code capacity} row ids seen, for dropping events that arrive twice: replayed after a
+ * reconnect, fetched again by a catch-up or repeated within one batch. Memory is fixed at allocation,
+ * about 24 bytes per id, and every call is O(1).
+ * <p>
+ * Ids are kept in a ring in arrival order and indexed by an open-addressing table with linear probing;
+ * once full, each new id evicts the oldest. Id 0 is stored as 1, which only matters for 64-bit hash
+ * collisions. Not thread-safe.
+ */
+public final class RecentIds {
+
+    private static final long EMPTY = 0;
+
+    private final long[] order;
+    private final long[] table;
+    private final int mask;
+    private int next;
+    private int size;
+
+    public RecentIds(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        order = new long[capacity];
+        int tableSize = Integer.highestOneBit(2 * capacity - 1) << 1;
+        table = new long[tableSize];
+        mask = tableSize - 1;
+    }
+
+    /**
+     * Records {@code id}.
+     *
+     * @return false if it is among the recent ids already
+     */
+    public boolean add(long id) {
+        long key = id == EMPTY ? 1 : id;
+        if (table[slotOf(key)] == key) {
+            return false;
+        }
+        if (size == order.length) {
+            remove(order[next]);
+        } else {
+            size++;
+        }
+        order[next] = key;
+        next = next + 1 == order.length ? 0 : next + 1;
+        table[slotOf(key)] = key;
+        return true;
+    }
+
+    public boolean contains(long id) {
+        long key = id == EMPTY ? 1 : id;
+        return table[slotOf(key)] == key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return order.length;
+    }
+
+    public void clear() {
+        Arrays.fill(order, EMPTY);
+        Arrays.fill(table, EMPTY);
+        next = 0;
+        size = 0;
+    }
+
+    private int slotOf(long key) {
+        int slot = home(key);
+        while (table[slot] != EMPTY && table[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int home(long key) {
+        int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Deletes by shifting later entries of the probe run back, so lookups never need tombstones.
+     */
+    private void remove(long key) {
+        int hole = slotOf(key);
+        if (table[hole] != key) {
+            return;
+        }
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long candidate = table[slot];
+            if (candidate == EMPTY) {
+                break;
+            }
+            int home = home(candidate);
+            boolean staysPut = hole <= slot ? hole < home && home <= slot : hole < home || home <= slot;
+            if (!staysPut) {
+                table[hole] = candidate;
+                hole = slot;
+            }
+        }
+        table[hole] = EMPTY;
+    }
+}
@@ -0,0 +1,111 @@
+package io.ably.demo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remote users currently typing, in the order they started. Each entry expires {@link #TTL_MS} after
+ * its last update, so a typist who drops off without sending {@code isTyping:false} disappears on
+ * their own. The "X and Y are typing" label is rebuilt at most once per change.
+ * Not thread safe; owned by the main thread.
+ */
+public class TypingTracker {
+
+    public static final long TTL_MS = 8000;
+    static final int MAX_NAMED = 4;
+
+    private final LinkedHashMap<String, Long> expiries = new LinkedHashMap<>();
+    private String label = "";
+    private boolean labelStale;
+
+    /**
+     * @return whether the set of typists changed
+     */
+    public boolean apply(String clientId, boolean isTyping, long now) {
+        if (isTyping) {
+            boolean added = expiries.put(clientId, now + TTL_MS) == null;
+            labelStale |= added;
+            return added;
+        }
+        boolean removed = expiries.remove(clientId) != null;
+        labelStale |= removed;
+        return removed;
+    }
+
+    /**
+     * Drops typists whose last update is older than the TTL.
+     *
+     * @return whether the set of typists changed
+     */
+    public boolean expire(long now) {
+        boolean removed = false;
+        Iterator<Map.Entry<String, Long>> entries = expiries.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().getValue() <= now) {
+                entries.remove();
+                removed = true;
+            }
+        }
+        labelStale |= removed;
+        return removed;
+    }
+
+    /**
+     * @return whether anybody was typing
+     */
+    public boolean clear() {
+        boolean removed = !expiries.isEmpty();
+        expiries.clear();
+        labelStale |= removed;
+        return removed;
+    }
+
+    /**
+     * Time of the earliest pending expiry, or {@link Long#MAX_VALUE} when nobody is typing.
+     */
+    public long nextExpiry() {
+        long next = Long.MAX_VALUE;
+        for (long expiry : expiries.values()) {
+            next = Math.min(next, expiry);
+        }
+        return next;
+    }
+
+    public boolean isEmpty() {
+        return expiries.isEmpty();
+    }
+
+    public String label() {
+        if (labelStale) {
+            label = buildLabel(expiries.keySet());
+            labelStale = false;
+        }
+        return label;
+    }
+
+    /**
+     * Names up to {@link #MAX_NAMED} typists; with more, the first three and "others".
+     */
+    static String buildLabel(Iterable<String> typists) {
+        String[] named = new String[MAX_NAMED];
+        int count = 0;
+        for (String typist : typists) {
+            if (count == MAX_NAMED) {
+                return named[0] + ", " + named[1] + ", " + named[2] + " and others are typing";
+            }
+            named[count++] = typist;
+        }
+        if (count == 0) {
+            return "";
+        }
+        if (count == 1) {
+            return named[0] + " is typing";
+        }
+        StringBuilder text = new StringBuilder(64).append(named[0]);
+        for (int i = 1; i < count - 1; i++) {
+            text.append(", ").append(named[i]);
+        }
+        return text.append(" and ").append(named[count - 1]).append(" are typing").toString();
+    }
+}
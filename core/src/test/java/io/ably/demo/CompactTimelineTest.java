@@ -0,0 +1,161 @@
+package io.ably.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.ably.lib.types.BaseMessage;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+
+public class CompactTimelineTest {
+
+    private static final int ROWS = 100_000;
+
+    @Test
+    public void keepsRowsOrderedByTimestamp() {
+        CompactTimeline timeline = new CompactTimeline();
+        timeline.add(message("a", 30));
+        timeline.add(message("b", 10));
+        timeline.add(message("c", 20));
+
+        assertEquals(10, timeline.timestampAt(0));
+        assertEquals(20, timeline.timestampAt(1));
+        assertEquals(30, timeline.timestampAt(2));
+        assertEquals("text-b", timeline.textAt(0));
+    }
+
+    @Test
+    public void mergesBackwardsBatchAndReportsInsertedPositions() {
+        CompactTimeline timeline = new CompactTimeline();
+        timeline.add(message("live-1", 15));
+        timeline.add(message("live-2", 35));
+
+        List<BaseMessage> history = Arrays.asList(message("h3", 40), message("h2", 20), presence("h1", 5, PresenceMessage.Action.enter));
+        int[] positions = timeline.addAll(history);
+
+        assertArrayEquals(new int[] { 0, 2, 4 }, positions);
+        assertEquals(CompactTimeline.KIND_ENTER, timeline.kindAt(0));
+        assertEquals(5, timeline.size());
+    }
+
+    @Test
+    public void timestampsFarApartAreNotMisordered() {
+        CompactTimeline timeline = new CompactTimeline();
+        timeline.add(message("late", Long.MAX_VALUE - 1));
+        timeline.add(message("early", 1));
+
+        assertEquals(1, timeline.timestampAt(0));
+    }
+
+    @Test
+    public void internsSenders() {
+        CompactTimeline timeline = new CompactTimeline();
+        timeline.add(message("a", 1, "alice"));
+        timeline.add(message("b", 2, "bob"));
+        timeline.add(message("c", 3, "alice"));
+
+        assertEquals(timeline.senderIdAt(0), timeline.senderIdAt(2));
+        assertEquals("bob", timeline.senderAt(1));
+    }
+
+    @Test
+    public void skipsRowsAlreadyHeld() {
+        CompactTimeline timeline = new CompactTimeline();
+        timeline.add(message("a", 10));
+        timeline.add(message("b", 20));
+
+        assertEquals(-1, timeline.add(message("a", 10)));
+        assertArrayEquals(new int[] { 1 }, timeline.addAll(Arrays.asList(message("b", 20), message("c", 15))));
+        assertEquals(3, timeline.size());
+    }
+
+    @Test
+    public void skipsRepeatsWithinABatch() {
+        CompactTimeline timeline = new CompactTimeline();
+
+        assertArrayEquals(new int[] { 0, 1 }, timeline.addAll(Arrays.asList(message("a", 10), message("b", 20), message("a", 10))));
+        assertEquals(2, timeline.size());
+    }
+
+    @Test
+    public void trimEvictsOldestRows() {
+        CompactTimeline timeline = new CompactTimeline();
+        for (int i = 0; i < 1000; i++) {
+            timeline.add(message("id-" + i, i));
+        }
+
+        assertEquals(900, timeline.trimTo(100));
+        assertEquals(100, timeline.size());
+        assertEquals(900, timeline.oldestTimestamp());
+        assertTrue(timeline.hasEvictedRows());
+        assertTrue(timeline.columnBytes() < 100 * 40);
+    }
+
+    @Test
+    public void removesRowByKey() {
+        CompactTimeline timeline = new CompactTimeline();
+        timeline.add(message("a", 10));
+        timeline.add(message("b", 20));
+        timeline.add(message("c", 30));
+
+        assertEquals(1, timeline.remove(20, MessageKeys.hash64("b")));
+        assertEquals(-1, timeline.remove(20, MessageKeys.hash64("b")));
+        assertEquals(2, timeline.size());
+        assertEquals("text-c", timeline.textAt(1));
+    }
+
+    @Test
+    public void measuresMemoryPerHundredThousandRows() {
+        long before = usedHeap();
+        List<BaseMessage> batch = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            batch.add(message("id-" + i, i, "user-" + (i % 500)));
+        }
+
+        CompactTimeline timeline = new CompactTimeline();
+        timeline.addAll(batch);
+        batch = null;
+        long retained = usedHeap() - before;
+
+        long columnBytes = timeline.columnBytes();
+        System.out.printf("CompactTimeline: %d rows, columns %d bytes (%.1f B/row), retained heap incl. text %.1f B/row%n",
+            timeline.size(), columnBytes, (double) columnBytes / ROWS, (double) retained / ROWS);
+
+        assertEquals(ROWS, timeline.size());
+        assertTrue("columns should stay under 40 bytes per row", columnBytes / ROWS < 40);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Message message(String id, long timestamp) {
+        return message(id, timestamp, "user");
+    }
+
+    private static Message message(String id, long timestamp, String clientId) {
+        Message message = new Message(null, "text-" + id);
+        message.id = id;
+        message.timestamp = timestamp;
+        message.clientId = clientId;
+        return message;
+    }
+
+    private static PresenceMessage presence(String id, long timestamp, PresenceMessage.Action action) {
+        PresenceMessage message = new PresenceMessage(action, "user");
+        message.id = id;
+        message.timestamp = timestamp;
+        return message;
+    }
+}
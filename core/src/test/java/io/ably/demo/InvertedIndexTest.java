@@ -0,0 +1,110 @@
+package io.ably.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class InvertedIndexTest {
+
+    @Test
+    public void tokenizesOnPunctuationAndLowerCases() {
+        assertEquals(Arrays.asList("hey", "alice", "it", "s", "3pm"), InvertedIndex.tokenize("Hey @Alice, it's 3PM!"));
+        assertTrue(InvertedIndex.tokenize("  ...  ").isEmpty());
+    }
+
+    @Test
+    public void matchesEveryWordAsAPrefixNewestFirst() {
+        InvertedIndex index = new InvertedIndex();
+        index.add(30, 3, "bob", "lunch at noon", 300);
+        index.add(10, 1, "alice", "Lunchtime?", 100);
+        index.add(20, 2, "alice", "no lunch today", 200);
+
+        assertArrayEquals(new int[] { 0, 2, 1 }, index.search("lunch", null, 10));
+        assertArrayEquals(new int[] { 0, 2 }, index.search("LUN no", null, 10));
+        assertArrayEquals(new int[] { 0 }, index.search("lunch", null, 1));
+        assertArrayEquals(new int[0], index.search("dinner", null, 10));
+        assertEquals(300, index.refAt(0));
+    }
+
+    @Test
+    public void filtersBySender() {
+        InvertedIndex index = new InvertedIndex();
+        index.add(10, 1, "alice", "hello", 0);
+        index.add(20, 2, "bob", "hello there", 0);
+        index.add(30, 3, "alice", "bye", 0);
+
+        assertArrayEquals(new int[] { 0 }, index.search("hello", "alice", 10));
+        assertArrayEquals(new int[] { 2, 0 }, index.search("", "alice", 10));
+        assertArrayEquals(new int[0], index.search("hello", "carol", 10));
+        assertArrayEquals(new int[0], index.search("", null, 10));
+    }
+
+    @Test
+    public void ignoresARepeatedId() {
+        InvertedIndex index = new InvertedIndex();
+
+        assertEquals(0, index.add(10, 1, "alice", "hello", 0));
+        assertEquals(-1, index.add(10, 1, "alice", "hello", 0));
+        assertEquals(1, index.size());
+        assertTrue(index.contains(1));
+    }
+
+    @Test
+    public void survivesARoundTrip() throws Exception {
+        InvertedIndex index = new InvertedIndex();
+        index.add(10, 1, "alice", "first message", 11);
+        index.add(20, 2, null, "second message", 22);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+
+        InvertedIndex read = InvertedIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(2, read.size());
+        assertArrayEquals(new int[] { 1, 0 }, read.search("mess", null, 10));
+        assertEquals("alice", read.senderAt(0));
+        assertEquals(22, read.refAt(1));
+        assertEquals(-1, read.add(20, 2, null, "again", 0));
+        assertEquals(2, read.add(30, 3, "alice", "third message", 33));
+        assertArrayEquals(new int[] { 2, 0 }, read.search("message", "alice", 10));
+    }
+
+    @Test
+    public void queriesOverAHundredThousandMessagesTakeMilliseconds() {
+        String[] words = new String[2000];
+        Random random = new Random(1);
+        for (int i = 0; i < words.length; i++) {
+            words[i] = Long.toString(Math.abs(random.nextLong()), 36).substring(0, 3 + random.nextInt(5));
+        }
+        InvertedIndex index = new InvertedIndex();
+        long started = System.nanoTime();
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 8; w++) {
+                text.append(words[(int) Math.abs(random.nextGaussian() * 300) % words.length]).append(' ');
+            }
+            index.add(i, MessageKeys.hash64("m" + i), "user-" + random.nextInt(200), text.toString(), i);
+        }
+        long indexedNanos = System.nanoTime() - started;
+
+        String[] queries = { words[0], words[1].substring(0, 2), words[2] + " " + words[3], words[500] };
+        long worstNanos = 0;
+        for (int round = 0; round < 20; round++) {
+            for (String query : queries) {
+                long queryStarted = System.nanoTime();
+                index.search(query, round % 2 == 0 ? null : "user-7", 50);
+                worstNanos = Math.max(worstNanos, System.nanoTime() - queryStarted);
+            }
+        }
+        System.out.printf("InvertedIndex: 100000 messages indexed in %d ms, slowest query %.2f ms%n",
+            indexedNanos / 1_000_000, worstNanos / 1e6);
+        assertTrue(worstNanos < 500_000_000L);
+    }
+}
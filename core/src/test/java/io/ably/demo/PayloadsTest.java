@@ -0,0 +1,75 @@
+package io.ably.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+
+public class PayloadsTest {
+
+    @Test
+    public void chatPayloadsBecomeText() throws Exception {
+        Message text = new Message(null, "hello");
+        Message bytes = new Message(null, "h\u00e9llo".getBytes("UTF-8"));
+        Message json = new Message(null, new JsonPrimitive("quoted"));
+        Message empty = new Message(null, null);
+        Payloads.decode(text);
+        Payloads.decode(bytes);
+        Payloads.decode(json);
+        Payloads.decode(empty);
+
+        assertEquals("hello", text.data);
+        assertEquals("h\u00e9llo", bytes.data);
+        assertEquals("quoted", json.data);
+        assertNull(empty.data);
+    }
+
+    @Test
+    public void typingUpdatesBecomeBooleansAndDecodeOnlyOnce() {
+        PresenceMessage update = typing(true);
+        assertTrue(Payloads.isTyping(update));
+        Payloads.decode(update);
+        assertEquals(Boolean.TRUE, update.data);
+        Payloads.decode(update);
+        assertTrue(Payloads.isTyping(update));
+
+        PresenceMessage stopped = typing(false);
+        Payloads.decode(stopped);
+        assertEquals(Boolean.FALSE, stopped.data);
+    }
+
+    @Test
+    public void malformedTypingPayloadsMeanNotTyping() {
+        PresenceMessage missing = new PresenceMessage(PresenceMessage.Action.update, "a", new JsonObject());
+        PresenceMessage text = new PresenceMessage(PresenceMessage.Action.update, "a", "typing");
+        PresenceMessage none = new PresenceMessage(PresenceMessage.Action.update, "a");
+
+        assertFalse(Payloads.isTyping(missing));
+        assertFalse(Payloads.isTyping(text));
+        assertFalse(Payloads.isTyping(none));
+    }
+
+    @Test
+    public void enterPayloadsAreLeftAlone() {
+        JsonObject data = new JsonObject();
+        PresenceMessage enter = new PresenceMessage(PresenceMessage.Action.enter, "a", data);
+        Payloads.decode(enter);
+
+        assertTrue(enter.data == data);
+        assertNull(Payloads.textOf(enter));
+    }
+
+    private static PresenceMessage typing(boolean isTyping) {
+        JsonObject data = new JsonObject();
+        data.addProperty("isTyping", isTyping);
+        return new PresenceMessage(PresenceMessage.Action.update, "a", data);
+    }
+}
@@ -0,0 +1,78 @@
+package io.ably.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RecentIdsTest {
+
+    @Test
+    public void repeatsAreRejected() {
+        RecentIds ids = new RecentIds(16);
+
+        assertTrue(ids.add(42));
+        assertFalse(ids.add(42));
+        assertTrue(ids.add(0));
+        assertFalse(ids.add(0));
+        assertEquals(2, ids.size());
+    }
+
+    @Test
+    public void theOldestIdIsForgottenOnceFull() {
+        RecentIds ids = new RecentIds(3);
+        ids.add(1);
+        ids.add(2);
+        ids.add(3);
+        ids.add(4);
+
+        assertFalse(ids.contains(1));
+        assertTrue(ids.contains(2));
+        assertTrue(ids.contains(4));
+        assertEquals(3, ids.size());
+        assertTrue(ids.add(1));
+        assertFalse(ids.contains(2));
+    }
+
+    @Test
+    public void matchesASlidingWindowUnderChurn() {
+        int capacity = 1000;
+        RecentIds ids = new RecentIds(capacity);
+        ArrayDeque<Long> window = new ArrayDeque<>();
+        HashSet<Long> members = new HashSet<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 200_000; i++) {
+            // A small key space makes long probe runs and frequent repeats.
+            long id = random.nextInt(3000) * 0x10000L;
+            boolean fresh = !members.contains(id);
+            assertEquals(fresh, ids.add(id));
+            if (fresh) {
+                window.addLast(id);
+                members.add(id);
+                if (window.size() > capacity) {
+                    members.remove(window.removeFirst());
+                }
+            }
+        }
+        assertEquals(capacity, ids.size());
+        for (long id = 0; id < 3000; id++) {
+            assertEquals(members.contains(id * 0x10000L), ids.contains(id * 0x10000L));
+        }
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        RecentIds ids = new RecentIds(4);
+        ids.add(7);
+        ids.clear();
+
+        assertFalse(ids.contains(7));
+        assertEquals(0, ids.size());
+        assertTrue(ids.add(7));
+    }
+}
@@ -0,0 +1,34 @@
+package io.ably.demo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class TypingTrackerTest {
+
+    @Test
+    public void namesUpToFourTypists() {
+        assertEquals("", TypingTracker.buildLabel(Collections.<String>emptyList()));
+        assertEquals("a is typing", TypingTracker.buildLabel(Arrays.asList("a")));
+        assertEquals("a and b are typing", TypingTracker.buildLabel(Arrays.asList("a", "b")));
+        assertEquals("a, b and c are typing", TypingTracker.buildLabel(Arrays.asList("a", "b", "c")));
+        assertEquals("a, b, c and d are typing", TypingTracker.buildLabel(Arrays.asList("a", "b", "c", "d")));
+        assertEquals("a, b, c and others are typing", TypingTracker.buildLabel(Arrays.asList("a", "b", "c", "d", "e")));
+    }
+
+    @Test
+    public void labelFollowsApplyAndExpiry() {
+        TypingTracker tracker = new TypingTracker();
+        tracker.apply("a", true, 0);
+        tracker.apply("b", true, 1000);
+        assertEquals("a and b are typing", tracker.label());
+
+        tracker.expire(TypingTracker.TTL_MS);
+        assertEquals("b is typing", tracker.label());
+        tracker.apply("b", false, TypingTracker.TTL_MS);
+        assertEquals("", tracker.label());
+    }
+}